@@ -0,0 +1,176 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.annotation.TargetApi;
+import android.graphics.drawable.ColorDrawable;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the objects allocated on the main thread while the spinner animates
+ * in a window after a swipe: back to the start after a short pull, to the
+ * trigger position after a long one, and the scale-down when the refresh is
+ * over. The frames of an animation must not allocate, so an animation
+ * allocates fewer objects than it has frames.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class AnimatorAllocationTest extends InstrumentationTestCase {
+    private static final String TAG = AnimatorAllocationTest.class.getSimpleName();
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private TestActivity mActivity;
+    private PuddingLayout mLayout;
+    private long mDownTime;
+    private float mY;
+
+    private CountDownLatch mEnd;
+    private int mFrames;
+    private int mAllocCount;
+
+    /**
+     * Counts the frames until the spinner stops, without allocating.
+     */
+    private final Choreographer.FrameCallback mFrameCounter = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mLayout.isSpinnerAnimating()) {
+                ++mFrames;
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                mAllocCount = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+                mEnd.countDown();
+            }
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mActivity = launchActivity(getInstrumentation().getTargetContext().getPackageName(),
+                TestActivity.class, null);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout = new PuddingLayout(mActivity);
+                mLayout.setTopDrawable(new ColorDrawable());
+                mLayout.setTriggerImmediately(false);
+                // scrollable only downward, so that a swipe down pulls the spinner
+                ScrollView scrollView = new ScrollView(mActivity);
+                scrollView.addView(new View(mActivity),
+                        new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+                mLayout.addView(scrollView);
+                mActivity.setContentView(mLayout);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mActivity.finish();
+        super.tearDown();
+    }
+
+    private void dispatch(int action) {
+        MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action,
+                mLayout.getWidth() / 2, mY, 0);
+        mLayout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    private void pull(float distance) {
+        mDownTime = SystemClock.uptimeMillis();
+        mY = mLayout.getHeight() / 8;
+        dispatch(MotionEvent.ACTION_DOWN);
+        for (int i = 0; i < 20; ++i) {
+            mY += distance / 20;
+            dispatch(MotionEvent.ACTION_MOVE);
+        }
+    }
+
+    /**
+     * Count from the start of the animation to its end.
+     *
+     * @param start Starts the animation on the main thread.
+     */
+    private void countAnimation(final Runnable start) throws InterruptedException {
+        mEnd = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mFrames = 0;
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                start.run();
+                Choreographer.getInstance().postFrameCallback(mFrameCounter);
+            }
+        });
+        assertTrue("animation never ends", mEnd.await(5, TimeUnit.SECONDS));
+    }
+
+    private void release() throws InterruptedException {
+        countAnimation(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(MotionEvent.ACTION_UP);
+            }
+        });
+    }
+
+    private void finishRefreshing() throws InterruptedException {
+        countAnimation(new Runnable() {
+            @Override
+            public void run() {
+                mLayout.setRefreshing(false);
+            }
+        });
+    }
+
+    private void pullOnMainSync(final float distance) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pull(distance);
+            }
+        });
+    }
+
+    public void testCancelAnimationNeverAllocates() throws Exception {
+        // the first one fills the pools
+        pullOnMainSync(HEIGHT / 16);
+        release();
+        pullOnMainSync(HEIGHT / 16);
+        release();
+        Log.i(TAG, "to start: " + mAllocCount + " objects in " + mFrames + " frames");
+        assertTrue("no animation", mFrames > 0);
+        assertTrue(mAllocCount + " objects in " + mFrames + " frames", mAllocCount < mFrames);
+    }
+
+    public void testTriggerAnimationsNeverAllocate() throws Exception {
+        pullOnMainSync(HEIGHT / 2);
+        release();
+        finishRefreshing();
+        pullOnMainSync(HEIGHT / 2);
+        release();
+        Log.i(TAG, "to trigger: " + mAllocCount + " objects in " + mFrames + " frames");
+        assertTrue("no animation", mFrames > 0);
+        assertTrue(mAllocCount + " objects in " + mFrames + " frames", mAllocCount < mFrames);
+        finishRefreshing();
+        Log.i(TAG, "scale down: " + mAllocCount + " objects in " + mFrames + " frames");
+        assertTrue("no animation", mFrames > 0);
+        assertTrue(mAllocCount + " objects in " + mFrames + " frames", mAllocCount < mFrames);
+    }
+}
@@ -0,0 +1,113 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Measures {@link GestureStateMachine} alone on the device: swipes that pull
+ * the spinner to the trigger, with children that can scroll down only.
+ */
+public class GestureStateMachineBenchmark extends InstrumentationTestCase {
+    private static final String TAG = GestureStateMachineBenchmark.class.getSimpleName();
+
+    private static final int TOUCH_SLOP = 24;
+    private static final float TOTAL_DRAG_DISTANCE = 192;
+    private static final int MOVES = 30;
+    private static final int GESTURES = 200000;
+
+    /**
+     * Answers without recording anything.
+     */
+    private static class NullCallback implements GestureStateMachine.Callback {
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isRefreshing() {
+            return false;
+        }
+
+        @Override
+        public int getWidth() {
+            return 1080;
+        }
+
+        @Override
+        public int checkChildrenScroll(float x, float y, int directions) {
+            return GestureStateMachine.SCROLL_DOWN & directions;
+        }
+
+        @Override
+        public boolean isNestedScrolling(int direction) {
+            return false;
+        }
+
+        @Override
+        public int interruptSpinner() {
+            return 0;
+        }
+
+        @Override
+        public boolean prepareSpinner(int direction, boolean takeover) {
+            return true;
+        }
+
+        @Override
+        public float calculateTakeoverDistance() {
+            return 0;
+        }
+
+        @Override
+        public void moveSpinner(float overscroll) {
+        }
+
+        @Override
+        public void triggerSpinner() {
+        }
+
+        @Override
+        public void cancelSpinner() {
+        }
+
+        @Override
+        public void requestDisallowInterceptTouchEvent() {
+        }
+    }
+
+    private static void swipe(GestureStateMachine machine) {
+        long time = 0;
+        float y = 300;
+        boolean intercepted = machine.onInterceptTouchEvent(GestureStateMachine.ACTION_DOWN, 0,
+                500, y, time);
+        for (int i = 0; i < MOVES; ++i) {
+            time += 8;
+            y += 20;
+            if (intercepted) {
+                machine.onTouchEvent(GestureStateMachine.ACTION_MOVE, 0, 500, y, time);
+            } else {
+                intercepted = machine.onInterceptTouchEvent(GestureStateMachine.ACTION_MOVE, 0,
+                        500, y, time);
+            }
+        }
+        machine.onTouchEvent(GestureStateMachine.ACTION_UP, 0, 500, y, time + 8);
+    }
+
+    public void testSwipes() throws Exception {
+        final GestureStateMachine machine = new GestureStateMachine(new NullCallback());
+        machine.setTouchSlop(TOUCH_SLOP);
+        machine.setTotalDragDistance(TOTAL_DRAG_DISTANCE);
+        machine.setLazyScrollCheck(true);
+        // warm up
+        for (int g = 0; g < GESTURES / 10; ++g) {
+            swipe(machine);
+        }
+        final long start = System.nanoTime();
+        for (int g = 0; g < GESTURES; ++g) {
+            swipe(machine);
+        }
+        final long elapsed = System.nanoTime() - start;
+        Log.i(TAG, elapsed / GESTURES + "ns/gesture of " + (MOVES + 2) + " events");
+    }
+}
@@ -0,0 +1,167 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.annotation.TargetApi;
+import android.graphics.drawable.ColorDrawable;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ScrollView;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the main thread time of the frames of a drag in a window, from the
+ * ACTION_MOVE at the start of the frame until the traversal is done, with the
+ * spinner moved by its translation and by its layout position. Also counts
+ * the layout passes of the drag.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class MoveFrameTimeTest extends InstrumentationTestCase {
+    private static final String TAG = MoveFrameTimeTest.class.getSimpleName();
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int FRAMES = 60;
+
+    private TestActivity mActivity;
+    private PuddingLayout mLayout;
+    private long mDownTime;
+    private float mY;
+    private long mFrameNanos;
+    private int mLayoutCount;
+
+    private final ViewTreeObserver.OnGlobalLayoutListener mLayoutCounter =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+                @Override
+                public void onGlobalLayout() {
+                    ++mLayoutCount;
+                }
+            };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mActivity = launchActivity(getInstrumentation().getTargetContext().getPackageName(),
+                TestActivity.class, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mActivity.finish();
+        super.tearDown();
+    }
+
+    private void setUpLayout(final boolean moveByTranslation) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout = new PuddingLayout(mActivity);
+                mLayout.setTopDrawable(new ColorDrawable());
+                mLayout.setMoveByTranslation(moveByTranslation);
+                mLayout.setCoalesceMoves(false);
+                // scrollable only downward, so that a swipe down pulls the spinner
+                ScrollView scrollView = new ScrollView(mActivity);
+                scrollView.addView(new View(mActivity),
+                        new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+                mLayout.addView(scrollView);
+                mActivity.setContentView(mLayout);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private void dispatch(int action) {
+        MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action,
+                mLayout.getWidth() / 2, mY, 0);
+        mLayout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    /**
+     * Move at the start of a frame and stop the clock after the traversal of
+     * the frame, which blocks the messages posted before it is done.
+     */
+    private void moveInFrame() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        final long start = System.nanoTime();
+                        mY += 8;
+                        dispatch(MotionEvent.ACTION_MOVE);
+                        mLayout.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mFrameNanos += System.nanoTime() - start;
+                                done.countDown();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        assertTrue("no frame", done.await(1, TimeUnit.SECONDS));
+    }
+
+    private void drag(boolean moveByTranslation) throws InterruptedException {
+        setUpLayout(moveByTranslation);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mDownTime = SystemClock.uptimeMillis();
+                mY = mLayout.getHeight() / 8;
+                dispatch(MotionEvent.ACTION_DOWN);
+                // over the touch slop, and the spinner is shown
+                for (int i = 0; i < 10; ++i) {
+                    mY += 8;
+                    dispatch(MotionEvent.ACTION_MOVE);
+                }
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mFrameNanos = 0;
+                mLayoutCount = 0;
+                mLayout.getViewTreeObserver().addOnGlobalLayoutListener(mLayoutCounter);
+            }
+        });
+        for (int i = 0; i < FRAMES; ++i) {
+            moveInFrame();
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @SuppressWarnings("deprecation")
+            @Override
+            public void run() {
+                mLayout.getViewTreeObserver().removeGlobalOnLayoutListener(mLayoutCounter);
+                dispatch(MotionEvent.ACTION_UP);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    public void testMoveByTranslation() throws Exception {
+        drag(false);
+        final long layoutNanos = mFrameNanos;
+        final int layoutCount = mLayoutCount;
+        drag(true);
+        final long translationNanos = mFrameNanos;
+        final int translationCount = mLayoutCount;
+        Log.i(TAG, "layout: " + layoutNanos / FRAMES / 1000 + "us/frame, "
+                + layoutCount + " layouts in " + FRAMES + " frames");
+        Log.i(TAG, "translation: " + translationNanos / FRAMES / 1000 + "us/frame, "
+                + translationCount + " layouts in " + FRAMES + " frames");
+        assertTrue("translation still lays out", translationCount < layoutCount);
+    }
+}
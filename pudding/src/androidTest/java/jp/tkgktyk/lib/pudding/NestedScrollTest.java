@@ -0,0 +1,127 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.graphics.drawable.ColorDrawable;
+import android.os.SystemClock;
+import android.support.v4.view.ViewCompat;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+
+/**
+ * Checks that the nested scrolling path leaves a spinner of the intercept
+ * path alone: the child starts and stops its nested scroll around a drag
+ * that the layout intercepts.
+ */
+public class NestedScrollTest extends InstrumentationTestCase {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private PuddingLayout mLayout;
+    private ScrollView mScrollView;
+    private long mDownTime;
+    private int mTopCount;
+
+    private void setUpLayout(boolean immediately) {
+        mLayout = new PuddingLayout(getInstrumentation().getTargetContext());
+        mLayout.setTopDrawable(new ColorDrawable());
+        mLayout.useNestedScroll(true);
+        mLayout.setTriggerImmediately(immediately);
+        mLayout.setOnOverscrollListener(new PuddingLayout.OnOverscrollListener() {
+            @Override
+            public void onOverscrollTop() {
+                ++mTopCount;
+            }
+
+            @Override
+            public void onOverscrollBottom() {
+            }
+
+            @Override
+            public void onOverscrollLeft() {
+            }
+
+            @Override
+            public void onOverscrollRight() {
+            }
+        });
+        // scrollable only downward, so that a swipe down pulls the spinner
+        mScrollView = new ScrollView(mLayout.getContext());
+        mScrollView.addView(new View(mLayout.getContext()),
+                new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+        mLayout.addView(mScrollView);
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, WIDTH, HEIGHT);
+        mTopCount = 0;
+    }
+
+    private float down() {
+        mDownTime = SystemClock.uptimeMillis();
+        final float y = HEIGHT / 8;
+        dispatch(MotionEvent.ACTION_DOWN, y);
+        return y;
+    }
+
+    private float dragDown(float y) {
+        for (int i = 0; i < 20; ++i) {
+            y += HEIGHT / 30;
+            dispatch(MotionEvent.ACTION_MOVE, y);
+        }
+        return y;
+    }
+
+    private void dispatch(int action, float y) {
+        MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action,
+                WIDTH / 2, y, 0);
+        mLayout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    private void acceptNestedScroll() {
+        mLayout.onNestedScrollAccepted(mScrollView, mScrollView,
+                ViewCompat.SCROLL_AXIS_VERTICAL);
+    }
+
+    public void testChildStopKeepsInterceptedSpinner() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout(true);
+                float y = down();
+                acceptNestedScroll();
+                y = dragDown(y);
+                // the child is cancelled by the intercept and stops its nested scroll
+                mLayout.onStopNestedScroll(mScrollView);
+                assertFalse("spinner cancelled while dragged", mLayout.isSpinnerAnimating());
+                dispatch(MotionEvent.ACTION_UP, y);
+            }
+        });
+        assertEquals(1, mTopCount);
+    }
+
+    public void testTakeoverKeepsDirection() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout(false);
+                float y = dragDown(down());
+                dispatch(MotionEvent.ACTION_UP, y);
+                // the spinner is animating to the trigger position
+                assertTrue(mLayout.isSpinnerAnimating());
+
+                mLayout.setTriggerImmediately(true);
+                // interrupts the spinner and delivers the committed action
+                y = down();
+                assertEquals(1, mTopCount);
+                acceptNestedScroll();
+                // takes the spinner over
+                y = dragDown(y);
+                mLayout.onStopNestedScroll(mScrollView);
+                dispatch(MotionEvent.ACTION_UP, y);
+            }
+        });
+        assertEquals("action of the takeover dropped", 2, mTopCount);
+    }
+}
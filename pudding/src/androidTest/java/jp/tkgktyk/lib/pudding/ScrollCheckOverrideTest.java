@@ -0,0 +1,92 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.content.Context;
+import android.graphics.drawable.ColorDrawable;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Checks that a subclass overriding canChildrenScrollXxx is still asked
+ * instead of the single-walk probe.
+ */
+public class ScrollCheckOverrideTest extends InstrumentationTestCase {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    /**
+     * Its custom child scrolls up without telling the view system.
+     */
+    private static class CustomLayout extends PuddingLayout {
+        int calls;
+
+        CustomLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean canChildrenScrollUp() {
+            ++calls;
+            return true;
+        }
+    }
+
+    private PuddingLayout mLayout;
+    private long mDownTime;
+
+    private void setUpLayout(PuddingLayout layout) {
+        mLayout = layout;
+        mLayout.setTopDrawable(new ColorDrawable());
+        mLayout.addView(new View(mLayout.getContext()));
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private boolean intercept(int action, float y) {
+        final MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(),
+                action, WIDTH / 2, y, 0);
+        final boolean intercepted = mLayout.onInterceptTouchEvent(event);
+        event.recycle();
+        return intercepted;
+    }
+
+    /**
+     * @return Whether a swipe down is intercepted.
+     */
+    private boolean swipeDown() {
+        mDownTime = SystemClock.uptimeMillis();
+        float y = HEIGHT / 8;
+        boolean intercepted = intercept(MotionEvent.ACTION_DOWN, y);
+        for (int i = 0; i < 20 && !intercepted; ++i) {
+            y += HEIGHT / 30;
+            intercepted = intercept(MotionEvent.ACTION_MOVE, y);
+        }
+        intercept(MotionEvent.ACTION_UP, y);
+        return intercepted;
+    }
+
+    public void testProbeWithoutOverride() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout(new PuddingLayout(getInstrumentation().getTargetContext()));
+                assertTrue(swipeDown());
+            }
+        });
+    }
+
+    public void testOverrideIsAsked() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final CustomLayout layout = new CustomLayout(
+                        getInstrumentation().getTargetContext());
+                setUpLayout(layout);
+                assertFalse("swipe of the custom child intercepted", swipeDown());
+                assertTrue(layout.calls > 0);
+            }
+        });
+    }
+}
@@ -0,0 +1,123 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+
+/**
+ * Compares the scroll check of ACTION_DOWN before and after the single-walk
+ * probe: canChildrenScrollUp/Down/Left/Right against
+ * {@link PuddingLayout#probeChildrenScroll(float, float, int)}, on synthetic
+ * hierarchies of 100, 1,000 and 10,000 views where nothing can scroll, the
+ * worst case of both.
+ */
+public class ScrollProbeBenchmark extends InstrumentationTestCase {
+    private static final String TAG = ScrollProbeBenchmark.class.getSimpleName();
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    // children of each group
+    private static final int FAN_OUT = 10;
+    private static final int ITERATIONS = 200;
+
+    private PuddingLayout mLayout;
+    private long mFourWalkNanos;
+    private long mProbeNanos;
+
+    /**
+     * A tree of linear layouts alternating their orientation, FAN_OUT
+     * children each, with plain views as leaves.
+     */
+    private static View newTree(Context context, int views, boolean vertical) {
+        if (views <= 1) {
+            return new View(context);
+        }
+        final LinearLayout group = new LinearLayout(context);
+        group.setOrientation(vertical ? LinearLayout.VERTICAL : LinearLayout.HORIZONTAL);
+        final int perChild = (views - 1) / FAN_OUT;
+        for (int i = 0; i < FAN_OUT; ++i) {
+            group.addView(newTree(context, perChild, !vertical), new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT,
+                    1f));
+        }
+        return group;
+    }
+
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); ++i) {
+                count += countViews(group.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    private void setUpLayout(int views) {
+        final Context context = getInstrumentation().getTargetContext();
+        mLayout = new PuddingLayout(context);
+        mLayout.addView(newTree(context, views, true), new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private boolean fourWalks() {
+        return mLayout.canChildrenScrollUp() | mLayout.canChildrenScrollDown()
+                | mLayout.canChildrenScrollLeft() | mLayout.canChildrenScrollRight();
+    }
+
+    private int probe() {
+        return mLayout.probeChildrenScroll(WIDTH / 2, HEIGHT / 2,
+                GestureStateMachine.SCROLL_ALL);
+    }
+
+    private void measure(final int views) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout(views);
+                boolean scroll = false;
+                // warm up both
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    scroll |= fourWalks();
+                    scroll |= probe() != 0;
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    scroll |= fourWalks();
+                }
+                mFourWalkNanos = (System.nanoTime() - start) / ITERATIONS;
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    scroll |= probe() != 0;
+                }
+                mProbeNanos = (System.nanoTime() - start) / ITERATIONS;
+                assertFalse("nothing can scroll", scroll);
+            }
+        });
+        Log.i(TAG, countViews(mLayout) + " views: four walks " + mFourWalkNanos / 1000
+                + "us, probe " + mProbeNanos / 1000f + "us");
+    }
+
+    public void testProbe100Views() throws Exception {
+        measure(100);
+        assertTrue(mProbeNanos < mFourWalkNanos);
+    }
+
+    public void testProbe1000Views() throws Exception {
+        measure(1000);
+        assertTrue(mProbeNanos < mFourWalkNanos);
+    }
+
+    public void testProbe10000Views() throws Exception {
+        measure(10000);
+        assertTrue(mProbeNanos < mFourWalkNanos);
+    }
+}
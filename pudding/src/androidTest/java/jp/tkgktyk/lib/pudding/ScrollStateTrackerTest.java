@@ -0,0 +1,219 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.content.Context;
+import android.graphics.drawable.ColorDrawable;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.HorizontalScrollView;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+
+/**
+ * Checks that {@link ScrollStateTracker} answers like
+ * {@link PuddingLayout#probeChildrenScroll(float, float, int)} after scrolls
+ * and after changes of the hierarchy, and that it leaves the spinner out.
+ */
+public class ScrollStateTrackerTest extends InstrumentationTestCase {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    /**
+     * Scrolls horizontally once it has more than one page, like a pager,
+     * without telling the view system.
+     */
+    private static class PagerLayout extends FrameLayout {
+        PagerLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean canScrollHorizontally(int direction) {
+            return direction > 0 && getChildCount() > 1;
+        }
+    }
+
+    private PuddingLayout mLayout;
+    private FrameLayout mContainer;
+    private ScrollView mScrollView;
+    private ScrollStateTracker mTracker;
+
+    private void setUpLayout() {
+        mLayout = new PuddingLayout(getInstrumentation().getTargetContext());
+        mLayout.setBottomDrawable(new ColorDrawable());
+        final LinearLayout content = new LinearLayout(mLayout.getContext());
+        content.setOrientation(LinearLayout.VERTICAL);
+        // a vertical list on the top half, a horizontal one and an empty container below
+        mScrollView = new ScrollView(mLayout.getContext());
+        mScrollView.addView(new View(mLayout.getContext()),
+                new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+        content.addView(mScrollView, new LinearLayout.LayoutParams(WIDTH, HEIGHT / 2));
+        final HorizontalScrollView horizontal = new HorizontalScrollView(mLayout.getContext());
+        horizontal.addView(new View(mLayout.getContext()),
+                new ViewGroup.LayoutParams(WIDTH * 4, HEIGHT / 4));
+        content.addView(horizontal, new LinearLayout.LayoutParams(WIDTH, HEIGHT / 4));
+        mContainer = new FrameLayout(mLayout.getContext());
+        content.addView(mContainer, new LinearLayout.LayoutParams(WIDTH, HEIGHT / 4));
+        mLayout.addView(content);
+        layout();
+        mTracker = new ScrollStateTracker(mLayout, GestureStateMachine.SCROLL_ALL);
+        mTracker.attach();
+    }
+
+    private void layout() {
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private void assertSameAsProbe(float x, float y) {
+        final int probe = mLayout.probeChildrenScroll(x, y, GestureStateMachine.SCROLL_ALL);
+        assertEquals("at " + x + "," + y, probe,
+                mTracker.query(x, y, GestureStateMachine.SCROLL_ALL));
+    }
+
+    private void assertSameAsProbe() {
+        for (int y = HEIGHT / 16; y < HEIGHT; y += HEIGHT / 8) {
+            assertSameAsProbe(WIDTH / 2, y);
+        }
+    }
+
+    public void testAnswersLikeProbe() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                assertSameAsProbe();
+                assertEquals(GestureStateMachine.SCROLL_DOWN, mTracker.query(WIDTH / 2, HEIGHT / 4,
+                        GestureStateMachine.SCROLL_ALL));
+            }
+        });
+    }
+
+    public void testScrollRefreshesState() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                assertSameAsProbe();
+                mScrollView.scrollTo(0, HEIGHT);
+                mTracker.onScrollChanged();
+                assertSameAsProbe();
+                assertEquals(GestureStateMachine.SCROLL_UP | GestureStateMachine.SCROLL_DOWN,
+                        mTracker.query(WIDTH / 2, HEIGHT / 4, GestureStateMachine.SCROLL_ALL));
+            }
+        });
+    }
+
+    public void testLayoutCollectsChangedSubtree() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                assertSameAsProbe();
+                final int size = mTracker.size();
+
+                final ScrollView added = new ScrollView(mLayout.getContext());
+                added.addView(new View(mLayout.getContext()),
+                        new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+                mContainer.addView(added);
+                layout();
+                mTracker.onGlobalLayout();
+                assertSameAsProbe();
+                assertEquals(size + 1, mTracker.size());
+
+                mContainer.removeView(added);
+                layout();
+                mTracker.onGlobalLayout();
+                assertSameAsProbe();
+                assertEquals(size, mTracker.size());
+            }
+        });
+    }
+
+    public void testGroupBecomingScrollableIsAsked() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                final PagerLayout pager = new PagerLayout(mLayout.getContext());
+                pager.addView(new View(mLayout.getContext()));
+                mContainer.addView(pager);
+                layout();
+                mTracker.onGlobalLayout();
+                assertSameAsProbe();
+                assertEquals(0, mTracker.query(WIDTH / 2, HEIGHT * 7 / 8,
+                        GestureStateMachine.SCROLL_ALL));
+
+                // only the children of the pager change
+                pager.addView(new View(mLayout.getContext()));
+                layout();
+                mTracker.onGlobalLayout();
+                assertSameAsProbe();
+                assertEquals(GestureStateMachine.SCROLL_RIGHT, mTracker.query(WIDTH / 2,
+                        HEIGHT * 7 / 8, GestureStateMachine.SCROLL_ALL));
+            }
+        });
+    }
+
+    public void testViewOutOfParentIsNotHit() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                // moved over the horizontal list, out of the bounds of the container
+                final ScrollView added = new ScrollView(mLayout.getContext());
+                added.addView(new View(mLayout.getContext()),
+                        new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+                added.setTranslationY(-HEIGHT / 4);
+                mContainer.addView(added);
+                layout();
+                mTracker.onGlobalLayout();
+                assertSameAsProbe();
+                assertEquals(GestureStateMachine.SCROLL_RIGHT, mTracker.query(WIDTH / 2,
+                        HEIGHT * 5 / 8, GestureStateMachine.SCROLL_ALL));
+
+                // and after the container scrolls it back in
+                mContainer.scrollTo(0, -HEIGHT / 8);
+                mTracker.onScrollChanged();
+                assertSameAsProbe();
+            }
+        });
+    }
+
+    public void testSpinnerIsNotIndexed() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                // nothing scrolls on the container, so a swipe up there adds the spinner
+                mTracker.query(0, 0, GestureStateMachine.SCROLL_ALL);
+                final int size = mTracker.size();
+                final int children = mLayout.getChildCount();
+                final long downTime = SystemClock.uptimeMillis();
+                float y = HEIGHT * 7 / 8;
+                dispatch(downTime, MotionEvent.ACTION_DOWN, y);
+                for (int i = 0; i < 20; ++i) {
+                    y -= HEIGHT / 30;
+                    dispatch(downTime, MotionEvent.ACTION_MOVE, y);
+                }
+                dispatch(downTime, MotionEvent.ACTION_UP, y);
+                assertEquals("spinner not added", children + 1, mLayout.getChildCount());
+                layout();
+                mTracker.onGlobalLayout();
+                assertSameAsProbe();
+                assertEquals(size, mTracker.size());
+            }
+        });
+    }
+
+    private void dispatch(long downTime, int action, float y) {
+        final MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(),
+                action, WIDTH / 2, y, 0);
+        mLayout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+}
@@ -0,0 +1,142 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.RadialGradient;
+import android.graphics.Shader;
+import android.graphics.drawable.ShapeDrawable;
+import android.graphics.drawable.shapes.OvalShape;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+
+/**
+ * Compares the cost of drawing the pre-Lollipop spinner with its shadow: the
+ * cached bitmap of {@link CircleImageView} against the shadow layer and the
+ * radial gradient drawn on every frame before. The old drawing is repeated
+ * here as the reference. It was rendered into a software layer whenever the
+ * spinner was invalidated, so both are drawn on a software canvas, which is
+ * the most the cached bitmap costs.
+ */
+public class ShadowDrawBenchmark extends InstrumentationTestCase {
+    private static final String TAG = ShadowDrawBenchmark.class.getSimpleName();
+
+    // as PuddingLayout
+    private static final int CIRCLE_DIAMETER = 40;
+    private static final int CIRCLE_BG_LIGHT = 0xFFFAFAFA;
+    // as CircleImageView
+    private static final int KEY_SHADOW_COLOR = 0x1E000000;
+    private static final int FILL_SHADOW_COLOR = 0x3D000000;
+    private static final float Y_OFFSET = 1.75f;
+    private static final float SHADOW_RADIUS = 3.5f;
+
+    private static final int ITERATIONS = 500;
+
+    /**
+     * The spinner before the cached bitmap, without elevation.
+     */
+    private static class ReferenceCircleView extends ImageView {
+        private final int mShadowRadius;
+
+        ReferenceCircleView(Context context, int color, float radius) {
+            super(context);
+            final float density = context.getResources().getDisplayMetrics().density;
+            final int diameter = (int) (radius * density * 2);
+            mShadowRadius = (int) (density * SHADOW_RADIUS);
+            final ShapeDrawable circle = new ShapeDrawable(new OvalShadow(diameter));
+            circle.getPaint().setShadowLayer(mShadowRadius, 0, (int) (density * Y_OFFSET),
+                    KEY_SHADOW_COLOR);
+            setPadding(mShadowRadius, mShadowRadius, mShadowRadius, mShadowRadius);
+            circle.getPaint().setColor(color);
+            setBackgroundDrawable(circle);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            setMeasuredDimension(getMeasuredWidth() + mShadowRadius * 2,
+                    getMeasuredHeight() + mShadowRadius * 2);
+        }
+
+        private class OvalShadow extends OvalShape {
+            private final Paint mShadowPaint = new Paint();
+            private final int mCircleDiameter;
+
+            OvalShadow(int circleDiameter) {
+                mCircleDiameter = circleDiameter;
+                mShadowPaint.setShader(new RadialGradient(mCircleDiameter / 2,
+                        mCircleDiameter / 2, mShadowRadius, new int[]{
+                        FILL_SHADOW_COLOR, Color.TRANSPARENT
+                }, null, Shader.TileMode.CLAMP));
+            }
+
+            @Override
+            public void draw(Canvas canvas, Paint paint) {
+                final int viewWidth = getWidth();
+                final int viewHeight = getHeight();
+                canvas.drawCircle(viewWidth / 2, viewHeight / 2,
+                        (mCircleDiameter / 2 + mShadowRadius), mShadowPaint);
+                canvas.drawCircle(viewWidth / 2, viewHeight / 2, (mCircleDiameter / 2), paint);
+            }
+        }
+    }
+
+    private long mReferenceNanos;
+    private long mCachedNanos;
+
+    private static void layout(View view) {
+        final float density = view.getResources().getDisplayMetrics().density;
+        final int size = (int) (CIRCLE_DIAMETER * density);
+        view.measure(View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    /**
+     * @return Nanoseconds per frame, clearing the canvas like a layer.
+     */
+    private static long measure(View view) {
+        final Bitmap bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        // warm up, and the cached bitmap is rendered
+        for (int i = 0; i < ITERATIONS; ++i) {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            view.draw(canvas);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            view.draw(canvas);
+        }
+        final long nanos = (System.nanoTime() - start) / ITERATIONS;
+        bitmap.recycle();
+        return nanos;
+    }
+
+    public void testCachedShadowIsCheaper() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = getInstrumentation().getTargetContext();
+                final View reference = new ReferenceCircleView(context, CIRCLE_BG_LIGHT,
+                        CIRCLE_DIAMETER / 2);
+                final View cached = new CircleImageView(context, CIRCLE_BG_LIGHT,
+                        CIRCLE_DIAMETER / 2, false /* use elevation */);
+                layout(reference);
+                layout(cached);
+                assertEquals(reference.getWidth(), cached.getWidth());
+                mReferenceNanos = measure(reference);
+                mCachedNanos = measure(cached);
+            }
+        });
+        Log.i(TAG, "shadow layer and gradient " + mReferenceNanos / 1000f + "us/frame, cached "
+                + mCachedNanos / 1000f + "us/frame");
+        assertTrue(mCachedNanos < mReferenceNanos);
+    }
+}
@@ -0,0 +1,113 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.graphics.drawable.ColorDrawable;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+
+/**
+ * Checks which touches stop the spinner animated after a gesture: a new
+ * gesture on an enabled layout does, and any touch on a disabled one does
+ * not.
+ */
+public class SpinnerInterruptTest extends InstrumentationTestCase {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private PuddingLayout mLayout;
+    private long mDownTime;
+    private int mTopCount;
+
+    private void setUpLayout() {
+        mLayout = new PuddingLayout(getInstrumentation().getTargetContext());
+        mLayout.setTopDrawable(new ColorDrawable());
+        mLayout.setTriggerImmediately(false);
+        mLayout.setOnOverscrollListener(new PuddingLayout.OnOverscrollListener() {
+            @Override
+            public void onOverscrollTop() {
+                ++mTopCount;
+            }
+
+            @Override
+            public void onOverscrollBottom() {
+            }
+
+            @Override
+            public void onOverscrollLeft() {
+            }
+
+            @Override
+            public void onOverscrollRight() {
+            }
+        });
+        // scrollable only downward, so that a swipe down pulls the spinner
+        final ScrollView scrollView = new ScrollView(mLayout.getContext());
+        scrollView.addView(new View(mLayout.getContext()),
+                new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+        mLayout.addView(scrollView);
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, WIDTH, HEIGHT);
+        mTopCount = 0;
+    }
+
+    private void dispatch(int action, float y) {
+        final MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(),
+                action, WIDTH / 2, y, 0);
+        mLayout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    /**
+     * Pull the spinner past the distance and release it, so that it animates
+     * to the trigger position with the action committed.
+     */
+    private void pullToTrigger() {
+        mDownTime = SystemClock.uptimeMillis();
+        float y = HEIGHT / 8;
+        dispatch(MotionEvent.ACTION_DOWN, y);
+        for (int i = 0; i < 20; ++i) {
+            y += HEIGHT / 30;
+            dispatch(MotionEvent.ACTION_MOVE, y);
+        }
+        dispatch(MotionEvent.ACTION_UP, y);
+    }
+
+    private void tap() {
+        mDownTime = SystemClock.uptimeMillis();
+        dispatch(MotionEvent.ACTION_DOWN, HEIGHT / 2);
+        dispatch(MotionEvent.ACTION_UP, HEIGHT / 2);
+    }
+
+    public void testTapInterruptsSpinner() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                pullToTrigger();
+                assertTrue(mLayout.isSpinnerAnimating());
+                tap();
+                // the committed action is delivered first
+                assertEquals(1, mTopCount);
+            }
+        });
+    }
+
+    public void testDisabledLayoutKeepsAnimation() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout();
+                pullToTrigger();
+                assertTrue(mLayout.isSpinnerAnimating());
+                mLayout.setEnabled(false);
+                tap();
+                assertTrue("animation cut short", mLayout.isSpinnerAnimating());
+                assertEquals("action fired by a touch", 0, mTopCount);
+            }
+        });
+    }
+}
@@ -0,0 +1,10 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.app.Activity;
+
+/**
+ * An empty activity to attach the layouts under test to a window, for the
+ * tests that need frames and animations.
+ */
+public class TestActivity extends Activity {
+}
@@ -0,0 +1,125 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.graphics.drawable.ColorDrawable;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+
+/**
+ * Counts the objects allocated by {@link PuddingLayout} while it handles a
+ * swipe: onInterceptTouchEvent, onTouchEvent, moveSpinner and the
+ * TargetOffsetSetter. Handling ACTION_MOVE must not allocate at all.
+ */
+public class TouchAllocationTest extends InstrumentationTestCase {
+    private static final String TAG = TouchAllocationTest.class.getSimpleName();
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int MOVES = 100;
+
+    private PuddingLayout mLayout;
+    // obtained before counting
+    private final MotionEvent[] mMoves = new MotionEvent[MOVES];
+    private MotionEvent mDown;
+    private MotionEvent mUp;
+
+    private int mDownCount;
+    private int mMoveCount;
+    private int mUpCount;
+
+    private void setUpLayout(boolean moveByTranslation) {
+        mLayout = new PuddingLayout(getInstrumentation().getTargetContext());
+        mLayout.setTopDrawable(new ColorDrawable());
+        mLayout.setLazyScrollCheck(true);
+        mLayout.setMoveByTranslation(moveByTranslation);
+        mLayout.setCoalesceMoves(false);
+        // scrollable only downward, so that a swipe down pulls the spinner
+        ScrollView scrollView = new ScrollView(mLayout.getContext());
+        scrollView.addView(new View(mLayout.getContext()),
+                new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+        mLayout.addView(scrollView);
+        mLayout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mLayout.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private void obtainEvents() {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = WIDTH / 2;
+        float y = HEIGHT / 8;
+        long time = downTime;
+        mDown = MotionEvent.obtain(downTime, time, MotionEvent.ACTION_DOWN, x, y, 0);
+        for (int i = 0; i < MOVES; ++i) {
+            y += 6;
+            time += 8;
+            mMoves[i] = MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE, x, y, 0);
+        }
+        mUp = MotionEvent.obtain(downTime, time + 8, MotionEvent.ACTION_UP, x, y, 0);
+    }
+
+    private void recycleEvents() {
+        mDown.recycle();
+        for (MotionEvent move : mMoves) {
+            move.recycle();
+        }
+        mUp.recycle();
+    }
+
+    private void swipeDown(boolean count) {
+        obtainEvents();
+        if (count) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        }
+        mLayout.dispatchTouchEvent(mDown);
+        if (count) {
+            mDownCount = Debug.getThreadAllocCount();
+            Debug.resetThreadAllocCount();
+        }
+        for (MotionEvent move : mMoves) {
+            mLayout.dispatchTouchEvent(move);
+        }
+        if (count) {
+            mMoveCount = Debug.getThreadAllocCount();
+            Debug.resetThreadAllocCount();
+        }
+        mLayout.dispatchTouchEvent(mUp);
+        if (count) {
+            mUpCount = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+        }
+        recycleEvents();
+    }
+
+    private void runSwipes(final boolean moveByTranslation) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayout(moveByTranslation);
+                // the first swipes fill the pools of MotionEvent and TouchTarget
+                for (int i = 0; i < 3; ++i) {
+                    swipeDown(false);
+                    mLayout.setRefreshing(false);
+                }
+                swipeDown(true);
+            }
+        });
+        Log.i(TAG, "objects allocated: down " + mDownCount + ", " + MOVES + " moves "
+                + mMoveCount + ", up " + mUpCount);
+    }
+
+    public void testMovesByLayoutNeverAllocate() throws Exception {
+        runSwipes(false);
+        assertEquals("allocated by " + MOVES + " moves", 0, mMoveCount);
+    }
+
+    public void testMovesByTranslationNeverAllocate() throws Exception {
+        runSwipes(true);
+        assertEquals("allocated by " + MOVES + " moves", 0, mMoveCount);
+    }
+}
@@ -0,0 +1,180 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import static jp.tkgktyk.lib.pudding.GestureStateMachine.*;
+
+/**
+ * Counts the allocations of the pure Java part of the touch path: the gesture
+ * state machine with the fling predictor, the tension curve and both traces,
+ * wired as PuddingLayout wires them. Handling ACTION_MOVE must not allocate at
+ * all. The View side is covered by TouchAllocationTest.
+ */
+public class TouchPathAllocationTest extends InstrumentationTestCase {
+    private static final String TAG = TouchPathAllocationTest.class.getSimpleName();
+
+    private static final int WIDTH = 1080;
+    private static final int MOVES = 100;
+
+    /**
+     * Does the work of PuddingLayout.GestureCallback without a View.
+     */
+    private static class LayoutCallback implements Callback {
+        final TensionCurve curve = new TensionCurve();
+        final OffsetTrace offsetTrace = new OffsetTrace(256);
+        final GestureTrace gestureTrace;
+        int offset;
+        int triggers;
+
+        LayoutCallback(GestureTrace gestureTrace) {
+            this.gestureTrace = gestureTrace;
+            curve.configure(192, 192);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isRefreshing() {
+            return false;
+        }
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int checkChildrenScroll(float x, float y, int directions) {
+            // scrollable only downward
+            final int scroll = SCROLL_DOWN & directions;
+            gestureTrace.record(GestureTrace.TYPE_SCROLL, directions, scroll, x, y, 0);
+            return scroll;
+        }
+
+        @Override
+        public boolean isNestedScrolling(int direction) {
+            return false;
+        }
+
+        @Override
+        public int interruptSpinner() {
+            return 0;
+        }
+
+        @Override
+        public boolean prepareSpinner(int direction, boolean takeover) {
+            offset = 0;
+            return true;
+        }
+
+        @Override
+        public float calculateTakeoverDistance() {
+            return 0;
+        }
+
+        @Override
+        public void moveSpinner(float overscroll) {
+            final int target = (int) curve.offset(Math.abs(overscroll));
+            offsetTrace.record(System.nanoTime(), DIRECTION_TOP, target - offset, target);
+            offset = target;
+        }
+
+        @Override
+        public void triggerSpinner() {
+            ++triggers;
+        }
+
+        @Override
+        public void cancelSpinner() {
+        }
+
+        @Override
+        public void requestDisallowInterceptTouchEvent() {
+        }
+    }
+
+    private final GestureTrace mGestureTrace = new GestureTrace(4096);
+    private final LayoutCallback mCallback = new LayoutCallback(mGestureTrace);
+    private final GestureStateMachine mMachine = new GestureStateMachine(mCallback);
+    private boolean mIntercepted;
+
+    private void dispatch(int action, float x, float y, long time) {
+        if (action == ACTION_DOWN) {
+            mIntercepted = false;
+        }
+        if (mIntercepted) {
+            mGestureTrace.record(GestureTrace.TYPE_TOUCH, action, 0, x, y, time);
+            mMachine.onTouchEvent(action, 0, x, y, time);
+        } else {
+            mGestureTrace.record(GestureTrace.TYPE_INTERCEPT, action, 0, x, y, time);
+            mIntercepted = mMachine.onInterceptTouchEvent(action, 0, x, y, time);
+        }
+    }
+
+    private void history(float x, float y, long time) {
+        if (mIntercepted) {
+            mGestureTrace.record(GestureTrace.TYPE_HISTORY, ACTION_MOVE, 0, x, y, time);
+            mMachine.addHistoricalSample(time, x, y);
+        }
+    }
+
+    private void down() {
+        dispatch(ACTION_DOWN, 500, 300, 0);
+    }
+
+    /**
+     * A move of 6px every 8ms with a historical sample in between.
+     */
+    private void moves() {
+        float y = 300;
+        long time = 0;
+        for (int i = 0; i < MOVES; ++i) {
+            history(500, y + 3, time + 4);
+            y += 6;
+            time += 8;
+            dispatch(ACTION_MOVE, 500, y, time);
+        }
+    }
+
+    private void up() {
+        dispatch(ACTION_UP, 500, 300 + 6 * MOVES, 8 * MOVES + 8);
+    }
+
+    private void setUpMachine() {
+        mMachine.setTouchSlop(24);
+        mMachine.setTotalDragDistance(192);
+        mMachine.setLazyScrollCheck(true);
+        mMachine.setFlingTrigger(2400, 100);
+    }
+
+    public void testMovesNeverAllocate() throws Exception {
+        setUpMachine();
+        // warm up so that class loading and compilation are not counted
+        for (int i = 0; i < 1000; ++i) {
+            down();
+            moves();
+            up();
+        }
+        assertTrue(mCallback.triggers > 0);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        down();
+        final int downCount = Debug.getThreadAllocCount();
+        Debug.resetThreadAllocCount();
+        moves();
+        final int moveCount = Debug.getThreadAllocCount();
+        Debug.resetThreadAllocCount();
+        up();
+        final int upCount = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        Log.i(TAG, "objects allocated: down " + downCount + ", " + MOVES + " moves "
+                + moveCount + ", up " + upCount);
+        assertEquals("allocated by " + MOVES + " moves", 0, moveCount);
+    }
+}
@@ -0,0 +1,135 @@
+package jp.tkgktyk.lib.pudding;
+
+import android.graphics.drawable.ColorDrawable;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from ACTION_UP of a swipe over the trigger distance to
+ * {@link PuddingLayout.OnOverscrollListener#onOverscrollTop()}, in a window so
+ * that the spinner animates before the deferred trigger.
+ */
+public class TriggerLatencyTest extends InstrumentationTestCase {
+    private static final String TAG = TriggerLatencyTest.class.getSimpleName();
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private TestActivity mActivity;
+    private PuddingLayout mLayout;
+    private long mUpTime;
+    private long mNotifiedTime;
+    private CountDownLatch mNotified;
+    private boolean mNotifiedOnUp;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mActivity = launchActivity(getInstrumentation().getTargetContext().getPackageName(),
+                TestActivity.class, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mActivity.finish();
+        super.tearDown();
+    }
+
+    private void setUpLayout(final boolean immediately) {
+        mNotified = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUpLayoutOnMainThread(immediately);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private void setUpLayoutOnMainThread(boolean immediately) {
+        mLayout = new PuddingLayout(mActivity);
+        mLayout.setTopDrawable(new ColorDrawable());
+        mLayout.setTriggerImmediately(immediately);
+        mLayout.setOnOverscrollListener(new PuddingLayout.OnOverscrollListener() {
+            @Override
+            public void onOverscrollTop() {
+                mNotifiedTime = System.nanoTime();
+                mNotified.countDown();
+            }
+
+            @Override
+            public void onOverscrollBottom() {
+            }
+
+            @Override
+            public void onOverscrollLeft() {
+            }
+
+            @Override
+            public void onOverscrollRight() {
+            }
+        });
+        // scrollable only downward, so that a swipe down pulls the spinner
+        ScrollView scrollView = new ScrollView(mLayout.getContext());
+        scrollView.addView(new View(mLayout.getContext()),
+                new ViewGroup.LayoutParams(WIDTH, HEIGHT * 4));
+        mLayout.addView(scrollView);
+        mActivity.setContentView(mLayout);
+        mNotifiedTime = 0;
+    }
+
+    private void swipeDown() {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = mLayout.getWidth() / 2;
+        float y = mLayout.getHeight() / 8;
+        dispatch(downTime, MotionEvent.ACTION_DOWN, x, y);
+        for (int i = 0; i < 20; ++i) {
+            y += mLayout.getHeight() / 30;
+            dispatch(downTime, MotionEvent.ACTION_MOVE, x, y);
+        }
+        mUpTime = System.nanoTime();
+        dispatch(downTime, MotionEvent.ACTION_UP, x, y);
+    }
+
+    private void dispatch(long downTime, int action, float x, float y) {
+        MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action,
+                x, y, 0);
+        mLayout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    public void testTriggerImmediately() throws Exception {
+        setUpLayout(true);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                swipeDown();
+            }
+        });
+        assertTrue("not notified on ACTION_UP", mNotifiedTime != 0);
+        Log.i(TAG, "immediate: " + (mNotifiedTime - mUpTime) / 1000 + "us from ACTION_UP");
+    }
+
+    public void testTriggerAfterAnimation() throws Exception {
+        setUpLayout(false);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                swipeDown();
+                mNotifiedOnUp = mNotifiedTime != 0;
+            }
+        });
+        assertFalse("notified before the animation", mNotifiedOnUp);
+        // delivered when the spinner settles, at least ANIMATE_TO_TRIGGER_DURATION later
+        assertTrue("not notified after the animation", mNotified.await(5, TimeUnit.SECONDS));
+        Log.i(TAG, "deferred: " + (mNotifiedTime - mUpTime) / 1000 + "us from ACTION_UP");
+    }
+}
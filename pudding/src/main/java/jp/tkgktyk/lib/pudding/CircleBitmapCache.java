@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of the rendered spinner circles with their shadows.
+ * Every PuddingLayout in a process shares them because they never change once
+ * rendered. Entries are dropped when the process is asked to trim its memory,
+ * but bitmaps still drawn by a spinner are left to the garbage collector.
+ */
+final class CircleBitmapCache {
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+
+    private static boolean sCallbacksRegistered;
+
+    private static final ComponentCallbacks2 sTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                sCache.evictAll();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            sCache.evictAll();
+        }
+    };
+
+    private CircleBitmapCache() {
+    }
+
+    static String key(int width, int height, int diameter, int shadowRadius, float density,
+                      int color) {
+        return width + "x" + height + ":" + diameter + ":" + shadowRadius + ":" + density
+                + ":" + Integer.toHexString(color);
+    }
+
+    static Bitmap get(Context context, String key) {
+        registerCallbacks(context);
+        return sCache.get(key);
+    }
+
+    static void put(String key, Bitmap bitmap) {
+        sCache.put(key, bitmap);
+    }
+
+    private static synchronized void registerCallbacks(Context context) {
+        if (!sCallbacksRegistered) {
+            final Context application = context.getApplicationContext();
+            (application != null ? application : context).registerComponentCallbacks(sTrimCallbacks);
+            sCallbacksRegistered = true;
+        }
+    }
+}
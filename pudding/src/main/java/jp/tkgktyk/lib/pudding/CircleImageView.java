@@ -17,6 +17,7 @@
 package jp.tkgktyk.lib.pudding;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -45,9 +46,19 @@ public class CircleImageView extends ImageView {
 
     private Animation.AnimationListener mListener;
     private int mShadowRadius;
+    private final boolean mUseElevation;
 
     public CircleImageView(Context context, int color, final float radius) {
+        this(context, color, radius, elevationSupported());
+    }
+
+    /**
+     * @param useElevation false to draw the shadow by itself even if elevation
+     *                     is supported, e.g. when drawn without being attached.
+     */
+    public CircleImageView(Context context, int color, final float radius, boolean useElevation) {
         super(context);
+        mUseElevation = useElevation;
         final float density = getContext().getResources().getDisplayMetrics().density;
         final int diameter = (int) (radius * density * 2);
         final int shadowYOffset = (int) (density * Y_OFFSET);
@@ -56,13 +67,14 @@ public class CircleImageView extends ImageView {
         mShadowRadius = (int) (density * SHADOW_RADIUS);
 
         ShapeDrawable circle;
-        if (elevationSupported()) {
+        if (mUseElevation) {
             circle = new ShapeDrawable(new OvalShape());
             ViewCompat.setElevation(this, SHADOW_ELEVATION * density);
         } else {
             OvalShape oval = new OvalShadow(mShadowRadius, diameter);
             circle = new ShapeDrawable(oval);
-            ViewCompat.setLayerType(this, ViewCompat.LAYER_TYPE_SOFTWARE, circle.getPaint());
+            // the shadow layer is rendered into a bitmap by OvalShadow, so this
+            // view doesn't need a software layer.
             circle.getPaint().setShadowLayer(mShadowRadius, shadowXOffset, shadowYOffset,
                     KEY_SHADOW_COLOR);
             final int padding = mShadowRadius;
@@ -73,14 +85,14 @@ public class CircleImageView extends ImageView {
         setBackgroundDrawable(circle);
     }
 
-    private boolean elevationSupported() {
+    private static boolean elevationSupported() {
         return android.os.Build.VERSION.SDK_INT >= 21;
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        if (!elevationSupported()) {
+        if (!mUseElevation) {
             setMeasuredDimension(getMeasuredWidth() + mShadowRadius*2, getMeasuredHeight()
                     + mShadowRadius*2);
         }
@@ -123,29 +135,54 @@ public class CircleImageView extends ImageView {
     }
 
     private class OvalShadow extends OvalShape {
-        private RadialGradient mRadialGradient;
-        private Paint mShadowPaint;
         private int mCircleDiameter;
+        // the shadow and the circle rendered in software, shared through
+        // CircleBitmapCache and looked up again only when the size or the
+        // color changes
+        private Bitmap mCache;
+        private int mCacheColor;
 
         public OvalShadow(int shadowRadius, int circleDiameter) {
             super();
-            mShadowPaint = new Paint();
             mShadowRadius = shadowRadius;
             mCircleDiameter = circleDiameter;
-            mRadialGradient = new RadialGradient(mCircleDiameter / 2, mCircleDiameter / 2,
-                    mShadowRadius, new int[] {
-                            FILL_SHADOW_COLOR, Color.TRANSPARENT
-                    }, null, Shader.TileMode.CLAMP);
-            mShadowPaint.setShader(mRadialGradient);
         }
 
         @Override
         public void draw(Canvas canvas, Paint paint) {
             final int viewWidth = CircleImageView.this.getWidth();
             final int viewHeight = CircleImageView.this.getHeight();
+            if (viewWidth <= 0 || viewHeight <= 0) {
+                return;
+            }
+            if (mCache == null || mCache.getWidth() != viewWidth
+                    || mCache.getHeight() != viewHeight || mCacheColor != paint.getColor()) {
+                mCacheColor = paint.getColor();
+                final String key = CircleBitmapCache.key(viewWidth, viewHeight, mCircleDiameter,
+                        mShadowRadius, getResources().getDisplayMetrics().density, mCacheColor);
+                mCache = CircleBitmapCache.get(getContext(), key);
+                if (mCache == null) {
+                    mCache = render(viewWidth, viewHeight, paint);
+                    CircleBitmapCache.put(key, mCache);
+                }
+            }
+            canvas.drawBitmap(mCache, 0, 0, null);
+        }
+
+        private Bitmap render(int viewWidth, int viewHeight, Paint paint) {
+            final Bitmap bitmap = Bitmap.createBitmap(viewWidth, viewHeight,
+                    Bitmap.Config.ARGB_8888);
+            final Paint shadowPaint = new Paint();
+            shadowPaint.setShader(new RadialGradient(mCircleDiameter / 2, mCircleDiameter / 2,
+                    mShadowRadius, new int[] {
+                            FILL_SHADOW_COLOR, Color.TRANSPARENT
+                    }, null, Shader.TileMode.CLAMP));
+            // Paint.setShadowLayer is supported only by software canvases
+            final Canvas canvas = new Canvas(bitmap);
             canvas.drawCircle(viewWidth / 2, viewHeight / 2, (mCircleDiameter / 2 + mShadowRadius),
-                    mShadowPaint);
+                    shadowPaint);
             canvas.drawCircle(viewWidth / 2, viewHeight / 2, (mCircleDiameter / 2), paint);
+            return bitmap;
         }
     }
 }
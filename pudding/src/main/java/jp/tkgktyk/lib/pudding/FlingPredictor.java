@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+/**
+ * Estimates where a drag would end from its recent samples. The velocity is
+ * the least-squares slope of the samples in the last {@link #HORIZON_MILLIS},
+ * like the one of VelocityTracker, and the end point is projected from it
+ * linearly. Samples are kept in preallocated arrays, so no sample allocates.
+ * <p>
+ * Positions are signed distances of the drag from its start, and the
+ * direction of the drag is taken from the sign of the latest one.
+ * </p>
+ */
+class FlingPredictor {
+    static final long HORIZON_MILLIS = 100;
+    private static final int CAPACITY = 20;
+    // a drag has to cover this much of the target to be predicted, which
+    // keeps quick short swipes meant for the content from triggering
+    private static final float MIN_DISTANCE_RATIO = 0.5f;
+
+    private final long[] mTimes = new long[CAPACITY];
+    private final float[] mPositions = new float[CAPACITY];
+    private int mNext;
+    private int mCount;
+
+    private float mMinVelocity;
+    private int mProjectionMillis;
+
+    /**
+     * @param minVelocity      Velocity toward the direction of the drag in
+     *                         units per second needed to predict. 0 disables
+     *                         the prediction.
+     * @param projectionMillis How far ahead the end point is projected.
+     */
+    void setThresholds(float minVelocity, int projectionMillis) {
+        mMinVelocity = minVelocity;
+        mProjectionMillis = projectionMillis;
+    }
+
+    boolean isEnabled() {
+        return mMinVelocity > 0;
+    }
+
+    float getMinVelocity() {
+        return mMinVelocity;
+    }
+
+    int getProjectionMillis() {
+        return mProjectionMillis;
+    }
+
+    void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    void add(long timeMillis, float position) {
+        final int i = mNext;
+        mTimes[i] = timeMillis;
+        mPositions[i] = position;
+        mNext = (i + 1) % CAPACITY;
+        if (mCount < CAPACITY) {
+            ++mCount;
+        }
+    }
+
+    /**
+     * @return Velocity in units per second, or 0 if not known.
+     */
+    float getVelocity() {
+        if (mCount < 2) {
+            return 0;
+        }
+        final int last = (mNext - 1 + CAPACITY) % CAPACITY;
+        final long lastTime = mTimes[last];
+        // means of the samples in the horizon, times relative to the last one
+        int n = 0;
+        float sumT = 0;
+        float sumP = 0;
+        for (int k = 0; k < mCount; ++k) {
+            final int i = (last - k + CAPACITY) % CAPACITY;
+            final long age = lastTime - mTimes[i];
+            if (age > HORIZON_MILLIS) {
+                break;
+            }
+            sumT -= age;
+            sumP += mPositions[i];
+            ++n;
+        }
+        if (n < 2) {
+            return 0;
+        }
+        final float meanT = sumT / n;
+        final float meanP = sumP / n;
+        float sumTT = 0;
+        float sumTP = 0;
+        for (int k = 0; k < n; ++k) {
+            final int i = (last - k + CAPACITY) % CAPACITY;
+            final float t = -(lastTime - mTimes[i]) - meanT;
+            sumTT += t * t;
+            sumTP += t * (mPositions[i] - meanP);
+        }
+        if (sumTT == 0) {
+            return 0;
+        }
+        return sumTP / sumTT * 1000;
+    }
+
+    /**
+     * @param target Distance from the start of the drag.
+     * @return Whether the drag is fast enough, has covered a part of the
+     * target and is projected to reach the target.
+     */
+    boolean predictsReach(float target) {
+        if (!isEnabled() || mCount < 2) {
+            return false;
+        }
+        final float position = mPositions[(mNext - 1 + CAPACITY) % CAPACITY];
+        final float distance = Math.abs(position);
+        if (distance < target * MIN_DISTANCE_RATIO) {
+            return false;
+        }
+        final float velocity = Math.signum(position) * getVelocity();
+        return velocity >= mMinVelocity
+                && distance + velocity * mProjectionMillis / 1000 >= target;
+    }
+}
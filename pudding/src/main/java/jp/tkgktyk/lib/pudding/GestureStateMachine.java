@@ -0,0 +1,557 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+/**
+ * Intercept, drag and commit logic of {@link PuddingLayout} without Android
+ * dependencies. It takes touch events as primitives and asks its
+ * {@link Callback} about the children and the spinner, so that gestures can
+ * be replayed on a plain JVM.
+ * <p>
+ * Events follow onInterceptTouchEvent and onTouchEvent of a ViewGroup. The
+ * pointer id and the position passed with each action are:
+ * <ul>
+ * <li>ACTION_DOWN: the first pointer.</li>
+ * <li>ACTION_MOVE, ACTION_UP: the active pointer, or {@link #INVALID_POINTER}
+ * if the event does not have it.</li>
+ * <li>ACTION_POINTER_DOWN: the pointer going down.</li>
+ * <li>ACTION_POINTER_UP: the pointer that is active after the pointer goes
+ * up, that is another pointer if the active one goes up. The position is not
+ * used.</li>
+ * <li>ACTION_CANCEL: not used.</li>
+ * </ul>
+ * </p>
+ */
+class GestureStateMachine {
+    // same as MotionEvent
+    static final int ACTION_DOWN = 0;
+    static final int ACTION_UP = 1;
+    static final int ACTION_MOVE = 2;
+    static final int ACTION_CANCEL = 3;
+    static final int ACTION_POINTER_DOWN = 5;
+    static final int ACTION_POINTER_UP = 6;
+
+    static final int INVALID_POINTER = -1;
+    static final float DRAG_RATE = .5f;
+
+    static final int DIRECTION_TOP = 1;
+    static final int DIRECTION_BOTTOM = 2;
+    static final int DIRECTION_LEFT = 3;
+    static final int DIRECTION_RIGHT = 4;
+
+    static final int SCROLL_UP = 1;
+    static final int SCROLL_DOWN = 1 << 1;
+    static final int SCROLL_LEFT = 1 << 2;
+    static final int SCROLL_RIGHT = 1 << 3;
+    static final int SCROLL_ALL = SCROLL_UP | SCROLL_DOWN | SCROLL_LEFT | SCROLL_RIGHT;
+
+    interface Callback {
+        boolean isEnabled();
+
+        boolean isRefreshing();
+
+        int getWidth();
+
+        /**
+         * @param directions Mask of SCROLL_XXX to check.
+         * @return Mask of SCROLL_XXX that the children under the point can
+         * scroll to, restricted to directions.
+         */
+        int checkChildrenScroll(float x, float y, int directions);
+
+        /**
+         * @param direction One of SCROLL_XXX.
+         * @return Whether a nested scrolling child reports overscroll on the
+         * axis of the direction.
+         */
+        boolean isNestedScrolling(int direction);
+
+        /**
+         * Stop the spinner animated after a previous gesture. Called at
+         * ACTION_DOWN only while enabled, and does nothing unless the spinner
+         * is animating.
+         *
+         * @return DIRECTION_XXX of the stopped spinner, or 0 if not stopped.
+         */
+        int interruptSpinner();
+
+        /**
+         * @param direction One of DIRECTION_XXX.
+         * @param takeover  Keep the spinner stopped by
+         *                  {@link #interruptSpinner()} where it is.
+         * @return false if the direction has no spinner.
+         */
+        boolean prepareSpinner(int direction, boolean takeover);
+
+        /**
+         * @return Drag distance that puts the spinner at its current position.
+         */
+        float calculateTakeoverDistance();
+
+        void moveSpinner(float overscroll);
+
+        void triggerSpinner();
+
+        void cancelSpinner();
+
+        void requestDisallowInterceptTouchEvent();
+    }
+
+    private final Callback mCallback;
+    private final FlingPredictor mFlingPredictor = new FlingPredictor();
+
+    private int mTouchSlop;
+    private float mTotalDragDistance;
+    private boolean mLazyScrollCheck;
+    private boolean mUseMarginForDrawer;
+    private int mMarginForDrawer;
+    private boolean mCancelByMultiTouch;
+
+    private float mInitialMotionX;
+    private float mInitialDownX;
+    private float mInitialMotionY;
+    private float mInitialDownY;
+    private boolean mIsBeingDragged;
+    private int mActivePointerId = INVALID_POINTER;
+    // Target is returning to its start offset because it was cancelled or a
+    // refresh was triggered.
+    private boolean mReturningToStart;
+    private boolean mIntercept;
+    // DIRECTION_XXX of the drag
+    private int mDirection;
+
+    // SCROLL_XXX the children can scroll, valid once mScrollChecked
+    private int mScrollFlags;
+    private boolean mScrollChecked;
+
+    // direction of the spinner stopped by a new gesture, or 0
+    private int mInterruptedDirection;
+    // whether the dragged spinner was taken over from the stopped one
+    private boolean mTakeover;
+
+    GestureStateMachine(Callback callback) {
+        mCallback = callback;
+    }
+
+    void setTouchSlop(int touchSlop) {
+        mTouchSlop = touchSlop;
+    }
+
+    void setTotalDragDistance(float distance) {
+        mTotalDragDistance = distance;
+    }
+
+    void setLazyScrollCheck(boolean lazy) {
+        mLazyScrollCheck = lazy;
+    }
+
+    void useMarginForDrawer(boolean use, int margin) {
+        mUseMarginForDrawer = use;
+        mMarginForDrawer = margin;
+    }
+
+    void setCancelByMultiTouch(boolean cancel) {
+        mCancelByMultiTouch = cancel;
+    }
+
+    void setFlingTrigger(float minVelocity, int projectionMillis) {
+        mFlingPredictor.setThresholds(minVelocity, projectionMillis);
+    }
+
+    /**
+     * Copy the configuration into the settings of a trace. The width and
+     * FLAG_TRIGGER_IMMEDIATELY belong to the layout and are left as they are.
+     */
+    void writeSettings(GestureTrace.Settings settings) {
+        settings.touchSlop = mTouchSlop;
+        settings.totalDragDistance = mTotalDragDistance;
+        int flags = settings.flags & GestureTrace.FLAG_TRIGGER_IMMEDIATELY;
+        if (mLazyScrollCheck) {
+            flags |= GestureTrace.FLAG_LAZY_SCROLL_CHECK;
+        }
+        if (mUseMarginForDrawer) {
+            flags |= GestureTrace.FLAG_MARGIN_FOR_DRAWER;
+        }
+        if (mCancelByMultiTouch) {
+            flags |= GestureTrace.FLAG_CANCEL_BY_MULTI_TOUCH;
+        }
+        settings.flags = flags;
+        settings.marginForDrawer = mMarginForDrawer;
+        settings.flingMinVelocity = mFlingPredictor.getMinVelocity();
+        settings.flingProjectionMillis = mFlingPredictor.getProjectionMillis();
+    }
+
+    /**
+     * Configure as the settings of a trace.
+     */
+    void readSettings(GestureTrace.Settings settings) {
+        mTouchSlop = settings.touchSlop;
+        mTotalDragDistance = settings.totalDragDistance;
+        mLazyScrollCheck = settings.hasFlag(GestureTrace.FLAG_LAZY_SCROLL_CHECK);
+        mUseMarginForDrawer = settings.hasFlag(GestureTrace.FLAG_MARGIN_FOR_DRAWER);
+        mMarginForDrawer = settings.marginForDrawer;
+        mCancelByMultiTouch = settings.hasFlag(GestureTrace.FLAG_CANCEL_BY_MULTI_TOUCH);
+        mFlingPredictor.setThresholds(settings.flingMinVelocity, settings.flingProjectionMillis);
+    }
+
+    boolean isBeingDragged() {
+        return mIsBeingDragged;
+    }
+
+    boolean isReturningToStart() {
+        return mReturningToStart;
+    }
+
+    int getActivePointerId() {
+        return mActivePointerId;
+    }
+
+    boolean onInterceptTouchEvent(int action, int pointerId, float x, float y, long time) {
+        if (action == ACTION_DOWN) {
+            // a disabled layout leaves its spinner alone
+            mInterruptedDirection = mCallback.isEnabled() ? mCallback.interruptSpinner() : 0;
+        }
+
+        if (mReturningToStart && action == ACTION_DOWN) {
+            mReturningToStart = false;
+        }
+
+        if (!mCallback.isEnabled() || mReturningToStart || mCallback.isRefreshing()) {
+            // Fail fast if we're not in a state where a swipe is possible
+            return false;
+        }
+
+        switch (action) {
+            case ACTION_DOWN: {
+                mActivePointerId = pointerId;
+                mIsBeingDragged = false;
+                if (pointerId == INVALID_POINTER) {
+                    return false;
+                }
+                mInitialDownX = x;
+                mInitialDownY = y;
+                mIntercept = (!mUseMarginForDrawer || (mInitialDownX > mMarginForDrawer
+                        && mInitialDownX < (mCallback.getWidth() - mMarginForDrawer)));
+                mScrollFlags = 0;
+                mScrollChecked = false;
+                if (!mLazyScrollCheck) {
+                    checkChildrenScroll();
+                    mIntercept = mIntercept && mScrollFlags != 0;
+                }
+                break;
+            }
+
+            case ACTION_MOVE:
+                if (!mIntercept) {
+                    return false;
+                }
+                if (pointerId == INVALID_POINTER) {
+                    return false;
+                }
+                if (!mIsBeingDragged) {
+                    final float xDiff = x - mInitialDownX;
+                    final float yDiff = y - mInitialDownY;
+                    // give priority to vertical swipe
+                    if (yDiff > mTouchSlop) {
+                        return startDrag(DIRECTION_TOP, SCROLL_UP);
+                    } else if (-yDiff > mTouchSlop) {
+                        return startDrag(DIRECTION_BOTTOM, SCROLL_DOWN);
+                    } else if (xDiff > mTouchSlop) {
+                        return startDrag(DIRECTION_LEFT, SCROLL_LEFT);
+                    } else if (-xDiff > mTouchSlop) {
+                        return startDrag(DIRECTION_RIGHT, SCROLL_RIGHT);
+                    }
+                }
+                break;
+
+            case ACTION_POINTER_DOWN:
+                if (!mIsBeingDragged && mCancelByMultiTouch) {
+                    mReturningToStart = true;
+                    mCallback.cancelSpinner();
+                    mActivePointerId = INVALID_POINTER;
+                }
+                break;
+
+            case ACTION_POINTER_UP:
+                onSecondaryPointerUp(pointerId);
+                break;
+
+            case ACTION_UP:
+            case ACTION_CANCEL:
+                mIsBeingDragged = false;
+                mActivePointerId = INVALID_POINTER;
+                releaseInterruptedSpinner();
+                break;
+        }
+
+        return mIsBeingDragged;
+    }
+
+    /**
+     * Start dragging the spinner if the children cannot scroll to the
+     * direction, or let them handle the gesture.
+     *
+     * @return Whether the gesture is intercepted.
+     */
+    private boolean startDrag(int direction, int scroll) {
+        if (mCallback.isNestedScrolling(scroll) || !resolveIntercept()) {
+            return false;
+        }
+        if ((mScrollFlags & scroll) != 0 || !prepareSpinner(direction)) {
+            mCallback.requestDisallowInterceptTouchEvent();
+            return mIsBeingDragged;
+        }
+        final float takeover = mTakeover ? mCallback.calculateTakeoverDistance() : 0;
+        switch (direction) {
+            case DIRECTION_TOP:
+                mInitialMotionY = mInitialDownY + mTouchSlop - takeover;
+                break;
+            case DIRECTION_BOTTOM:
+                mInitialMotionY = mInitialDownY - mTouchSlop + takeover;
+                break;
+            case DIRECTION_LEFT:
+                mInitialMotionX = mInitialDownX + mTouchSlop - takeover;
+                break;
+            case DIRECTION_RIGHT:
+                mInitialMotionX = mInitialDownX - mTouchSlop + takeover;
+                break;
+        }
+        mIsBeingDragged = true;
+        return true;
+    }
+
+    private boolean prepareSpinner(int direction) {
+        final boolean takeover = direction == mInterruptedDirection;
+        if (!mCallback.prepareSpinner(direction, takeover)) {
+            return false;
+        }
+        mInterruptedDirection = 0;
+        mTakeover = takeover;
+        mDirection = direction;
+        mFlingPredictor.clear();
+        return true;
+    }
+
+    /**
+     * Return the spinner stopped at ACTION_DOWN when the new gesture does not
+     * drag it.
+     */
+    private void releaseInterruptedSpinner() {
+        if (mInterruptedDirection != 0) {
+            mInterruptedDirection = 0;
+            if (!mIsBeingDragged) {
+                mCallback.cancelSpinner();
+            }
+        }
+    }
+
+    /**
+     * Called when the intercept is disallowed, after which no more events
+     * come to return the interrupted spinner.
+     */
+    void onDisallowIntercept() {
+        releaseInterruptedSpinner();
+    }
+
+    /**
+     * Add a sample batched into the next ACTION_MOVE for the velocity.
+     */
+    void addHistoricalSample(long time, float x, float y) {
+        if (mIsBeingDragged) {
+            addFlingSample(time, x, y);
+        }
+    }
+
+    boolean onTouchEvent(int action, int pointerId, float x, float y, long time) {
+        if (mReturningToStart && action == ACTION_DOWN) {
+            mReturningToStart = false;
+        }
+
+        if (!mCallback.isEnabled() || mReturningToStart) {
+            // Fail fast if we're not in a state where a swipe is possible
+            return false;
+        }
+
+        switch (action) {
+            case ACTION_DOWN:
+                break;
+
+            case ACTION_MOVE: {
+                if (!mIntercept) {
+                    return false;
+                }
+                if (pointerId == INVALID_POINTER) {
+                    return false;
+                }
+
+                if (mIsBeingDragged) {
+                    final float overscrollLeft = (x - mInitialMotionX) * DRAG_RATE;
+                    final float overscrollTop = (y - mInitialMotionY) * DRAG_RATE;
+                    addFlingSample(time, x, y);
+                    switch (mDirection) {
+                        case DIRECTION_TOP:
+                            if (overscrollTop > 0) {
+                                mCallback.moveSpinner(overscrollTop);
+                            } else {
+                                return false;
+                            }
+                            break;
+                        case DIRECTION_BOTTOM:
+                            if (overscrollTop < 0) {
+                                mCallback.moveSpinner(overscrollTop);
+                            } else {
+                                return false;
+                            }
+                            break;
+                        case DIRECTION_LEFT:
+                            if (overscrollLeft > 0) {
+                                mCallback.moveSpinner(overscrollLeft);
+                            } else {
+                                return false;
+                            }
+                            break;
+                        case DIRECTION_RIGHT:
+                            if (overscrollLeft < 0) {
+                                mCallback.moveSpinner(overscrollLeft);
+                            } else {
+                                return false;
+                            }
+                            break;
+                    }
+                }
+                break;
+            }
+            case ACTION_POINTER_DOWN: {
+                if (!mIsBeingDragged && mCancelByMultiTouch) {
+                    mReturningToStart = true;
+                    mCallback.cancelSpinner();
+                    mActivePointerId = INVALID_POINTER;
+                } else {
+                    if (pointerId == INVALID_POINTER) {
+                        return false;
+                    }
+                    mActivePointerId = pointerId;
+                }
+                break;
+            }
+
+            case ACTION_POINTER_UP:
+                onSecondaryPointerUp(pointerId);
+                break;
+
+            case ACTION_UP: {
+                final boolean dragged = mIsBeingDragged;
+                mIsBeingDragged = false;
+                // only a drag has a spinner to finish
+                if (!mIntercept || !dragged) {
+                    mCallback.cancelSpinner();
+                    mActivePointerId = INVALID_POINTER;
+                    return false;
+                }
+                if (pointerId == INVALID_POINTER) {
+                    mCallback.cancelSpinner();
+                    mActivePointerId = INVALID_POINTER;
+                    return false;
+                }
+
+                final float overscrollLeft = (x - mInitialMotionX) * DRAG_RATE;
+                final float overscrollTop = (y - mInitialMotionY) * DRAG_RATE;
+                addFlingSample(time, x, y);
+                switch (mDirection) {
+                    case DIRECTION_TOP:
+                    case DIRECTION_BOTTOM:
+                        finishSpinner(overscrollTop);
+                        break;
+                    case DIRECTION_LEFT:
+                    case DIRECTION_RIGHT:
+                        finishSpinner(overscrollLeft);
+                        break;
+                }
+                mActivePointerId = INVALID_POINTER;
+                return false;
+            }
+            case ACTION_CANCEL:
+                mIsBeingDragged = false;
+                mCallback.cancelSpinner();
+                mActivePointerId = INVALID_POINTER;
+                return false;
+        }
+
+        return true;
+    }
+
+    private void onSecondaryPointerUp(int activePointerId) {
+        if (!mIsBeingDragged && mCancelByMultiTouch) {
+            return;
+        }
+        mActivePointerId = activePointerId;
+    }
+
+    private void addFlingSample(long time, float x, float y) {
+        if (!mFlingPredictor.isEnabled()) {
+            return;
+        }
+        switch (mDirection) {
+            case DIRECTION_TOP:
+            case DIRECTION_BOTTOM:
+                mFlingPredictor.add(time, y - mInitialMotionY);
+                break;
+            case DIRECTION_LEFT:
+            case DIRECTION_RIGHT:
+                mFlingPredictor.add(time, x - mInitialMotionX);
+                break;
+        }
+    }
+
+    private void finishSpinner(float overscroll) {
+        overscroll = Math.abs(overscroll);
+        if (overscroll > mTotalDragDistance
+                || mFlingPredictor.predictsReach(mTotalDragDistance / DRAG_RATE)) {
+            mCallback.triggerSpinner();
+        } else {
+            mCallback.cancelSpinner();
+        }
+    }
+
+    /**
+     * Ask the children under the initial down point about all directions in
+     * one walk. The result is kept until the next ACTION_DOWN.
+     */
+    private void checkChildrenScroll() {
+        if (!mScrollChecked) {
+            mScrollFlags = mCallback.checkChildrenScroll(mInitialDownX, mInitialDownY,
+                    SCROLL_ALL);
+            mScrollChecked = true;
+        }
+    }
+
+    /**
+     * Finish the intercept decision deferred by the lazy check. The gesture is
+     * intercepted only if any child under the finger can scroll, the same as
+     * the eager check at ACTION_DOWN.
+     *
+     * @return false if the gesture must not be intercepted.
+     */
+    private boolean resolveIntercept() {
+        checkChildrenScroll();
+        if (mScrollFlags != 0) {
+            return true;
+        }
+        mIntercept = false;
+        return false;
+    }
+}
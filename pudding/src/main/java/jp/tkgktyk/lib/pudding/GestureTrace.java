@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Ring buffer of the inputs of {@link GestureStateMachine}: the touch events
+ * as passed to it, the historical samples and the answers of the scroll
+ * checks. Replaying them through a state machine reproduces its decisions.
+ * Records have a fixed size and are kept in preallocated arrays, so
+ * recording never allocates, and the oldest records are overwritten when the
+ * buffer is full.
+ * <p>
+ * The configuration of the layout goes with the records, as the decisions
+ * depend on it. It is filled by the layout before the trace is written.
+ * </p>
+ * <p>
+ * The binary form is big-endian: the magic "PDTR", the version, the
+ * settings, the number of records and then the records from the oldest one.
+ * The settings are the width of the layout, the touch slop, the total drag
+ * distance as a float, the FLAG_XXX, the margin for drawers, the minimum
+ * velocity of the fling trigger in pixels per second as a float and its
+ * projection in milliseconds. A record is the type,
+ * the action or the checked directions, the pointer id or the scrollable
+ * directions, a reserved byte, x and y as floats and the time in milliseconds
+ * as a long.
+ * </p>
+ */
+class GestureTrace {
+    private static final int MAGIC = 0x50445452; // "PDTR"
+    private static final int VERSION = 2;
+
+    static final byte TYPE_INTERCEPT = 1;
+    static final byte TYPE_TOUCH = 2;
+    static final byte TYPE_HISTORY = 3;
+    static final byte TYPE_SCROLL = 4;
+
+    static final int FLAG_LAZY_SCROLL_CHECK = 1;
+    static final int FLAG_TRIGGER_IMMEDIATELY = 1 << 1;
+    static final int FLAG_MARGIN_FOR_DRAWER = 1 << 2;
+    static final int FLAG_CANCEL_BY_MULTI_TOUCH = 1 << 3;
+
+    /**
+     * The configuration of the layout that made the records.
+     */
+    static class Settings {
+        int width;
+        int touchSlop;
+        float totalDragDistance;
+        // FLAG_XXX
+        int flags;
+        int marginForDrawer;
+        // pixels per second, 0 if disabled
+        float flingMinVelocity;
+        int flingProjectionMillis;
+
+        boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "width=" + width + ", touchSlop=" + touchSlop
+                    + ", totalDragDistance=" + totalDragDistance
+                    + ", flags=" + Integer.toHexString(flags)
+                    + ", marginForDrawer=" + marginForDrawer
+                    + ", fling=" + flingMinVelocity + "px/s " + flingProjectionMillis + "ms";
+        }
+    }
+
+    private Settings mSettings = new Settings();
+
+    private final byte[] mTypes;
+    private final byte[] mActions;
+    private final byte[] mPointers;
+    private final float[] mXs;
+    private final float[] mYs;
+    private final long[] mTimes;
+    private int mNext;
+    private int mCount;
+
+    GestureTrace(int capacity) {
+        mTypes = new byte[capacity];
+        mActions = new byte[capacity];
+        mPointers = new byte[capacity];
+        mXs = new float[capacity];
+        mYs = new float[capacity];
+        mTimes = new long[capacity];
+    }
+
+    /**
+     * @param type    One of TYPE_XXX.
+     * @param action  The action, or the checked directions for TYPE_SCROLL.
+     * @param pointer The pointer id, or the scrollable directions for
+     *                TYPE_SCROLL.
+     */
+    void record(byte type, int action, int pointer, float x, float y, long time) {
+        final int i = mNext;
+        mTypes[i] = type;
+        mActions[i] = (byte) action;
+        mPointers[i] = (byte) pointer;
+        mXs[i] = x;
+        mYs[i] = y;
+        mTimes[i] = time;
+        mNext = (i + 1) % mTypes.length;
+        if (mCount < mTypes.length) {
+            ++mCount;
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return The settings written with the records, to be filled in place.
+     */
+    Settings getSettings() {
+        return mSettings;
+    }
+
+    void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    private int index(int n) {
+        final int capacity = mTypes.length;
+        return (mNext - mCount + n + capacity) % capacity;
+    }
+
+    /**
+     * @param n From 0, the oldest.
+     */
+    byte getType(int n) {
+        return mTypes[index(n)];
+    }
+
+    int getAction(int n) {
+        return mActions[index(n)];
+    }
+
+    int getPointer(int n) {
+        return mPointers[index(n)];
+    }
+
+    float getX(int n) {
+        return mXs[index(n)];
+    }
+
+    float getY(int n) {
+        return mYs[index(n)];
+    }
+
+    long getTime(int n) {
+        return mTimes[index(n)];
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(mSettings.width);
+        data.writeInt(mSettings.touchSlop);
+        data.writeFloat(mSettings.totalDragDistance);
+        data.writeInt(mSettings.flags);
+        data.writeInt(mSettings.marginForDrawer);
+        data.writeFloat(mSettings.flingMinVelocity);
+        data.writeInt(mSettings.flingProjectionMillis);
+        data.writeInt(mCount);
+        for (int n = 0; n < mCount; ++n) {
+            final int i = index(n);
+            data.writeByte(mTypes[i]);
+            data.writeByte(mActions[i]);
+            data.writeByte(mPointers[i]);
+            data.writeByte(0);
+            data.writeFloat(mXs[i]);
+            data.writeFloat(mYs[i]);
+            data.writeLong(mTimes[i]);
+        }
+        data.flush();
+    }
+
+    static GestureTrace readFrom(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a gesture trace");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported gesture trace version: " + version);
+        }
+        final Settings settings = new Settings();
+        settings.width = data.readInt();
+        settings.touchSlop = data.readInt();
+        settings.totalDragDistance = data.readFloat();
+        settings.flags = data.readInt();
+        settings.marginForDrawer = data.readInt();
+        settings.flingMinVelocity = data.readFloat();
+        settings.flingProjectionMillis = data.readInt();
+        final int count = data.readInt();
+        final GestureTrace trace = new GestureTrace(Math.max(1, count));
+        trace.mSettings = settings;
+        for (int n = 0; n < count; ++n) {
+            final byte type = data.readByte();
+            final byte action = data.readByte();
+            final byte pointer = data.readByte();
+            data.readByte();
+            trace.record(type, action, pointer, data.readFloat(), data.readFloat(),
+                    data.readLong());
+        }
+        return trace;
+    }
+}
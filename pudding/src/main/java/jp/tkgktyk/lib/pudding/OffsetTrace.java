@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+import java.io.PrintWriter;
+
+/**
+ * Ring buffer of spinner offset samples for diagnostics. Samples are kept in
+ * preallocated primitive arrays, so recording never allocates, and the oldest
+ * samples are overwritten when the buffer is full.
+ */
+class OffsetTrace {
+    private final long[] mTimes;
+    private final int[] mDirections;
+    private final int[] mDeltas;
+    private final int[] mOffsets;
+    private int mNext;
+    private int mCount;
+
+    OffsetTrace(int capacity) {
+        mTimes = new long[capacity];
+        mDirections = new int[capacity];
+        mDeltas = new int[capacity];
+        mOffsets = new int[capacity];
+    }
+
+    /**
+     * @param time      Time of the sample in nanoseconds.
+     * @param direction Direction of the spinner.
+     * @param delta     Offset applied by this move.
+     * @param offset    Offset of the spinner after this move.
+     */
+    void record(long time, int direction, int delta, int offset) {
+        final int i = mNext;
+        mTimes[i] = time;
+        mDirections[i] = direction;
+        mDeltas[i] = delta;
+        mOffsets[i] = offset;
+        mNext = (i + 1) % mTimes.length;
+        if (mCount < mTimes.length) {
+            ++mCount;
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Print the samples from the oldest one. Times are relative to the oldest.
+     */
+    void dump(PrintWriter writer) {
+        final int capacity = mTimes.length;
+        final int first = (mNext - mCount + capacity) % capacity;
+        final long origin = mTimes[first];
+        writer.println("time(us) direction delta offset");
+        for (int n = 0; n < mCount; ++n) {
+            final int i = (first + n) % capacity;
+            writer.print((mTimes[i] - origin) / 1000);
+            writer.print(' ');
+            writer.print(mDirections[i]);
+            writer.print(' ');
+            writer.print(mDeltas[i]);
+            writer.print(' ');
+            writer.println(mOffsets[i]);
+        }
+        writer.flush();
+    }
+}
@@ -18,12 +18,15 @@ package jp.tkgktyk.lib.pudding;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
 import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.NestedScrollingChild;
+import android.support.v4.view.NestedScrollingChildHelper;
 import android.support.v4.view.NestedScrollingParent;
+import android.support.v4.view.NestedScrollingParentHelper;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
@@ -33,10 +36,14 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-import android.view.animation.Animation;
-import android.view.animation.Animation.AnimationListener;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AnimationUtils;
 import android.view.animation.DecelerateInterpolator;
-import android.view.animation.Transformation;
+import android.view.animation.Interpolator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 
 /**
  * The SwipeRefreshLayout should be used whenever the user can refresh the
@@ -72,8 +79,8 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     private static final int CIRCLE_DIAMETER_LARGE = 56;
 
     private static final float DECELERATE_INTERPOLATION_FACTOR = 2f;
-    private static final int INVALID_POINTER = -1;
-    private static final float DRAG_RATE = .5f;
+    private static final int INVALID_POINTER = GestureStateMachine.INVALID_POINTER;
+    private static final float DRAG_RATE = GestureStateMachine.DRAG_RATE;
 
     private static final int SCALE_DOWN_DURATION = 150;
 
@@ -86,48 +93,59 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     // Default offset in dips from the top of the view to where the progress spinner should stop
     private static final int DEFAULT_CIRCLE_TARGET = 64;
 
-    private View mTarget; // the target of the gesture
+    // the target of the gesture, null after the children change until found
+    private View mTarget;
     private View mExternalTarget;
     private OnOverscrollListener mListener;
     private boolean mRefreshing = false;
-    private int mTouchSlop;
     private float mTotalDragDistance = -1;
 
-    /* removed nested scroll support */
-//    // If nested scrolling is enabled, the total amount that needed to be
-//    // consumed by this as the nested scrolling parent is used in place of the
-//    // overscroll determined by MOVE events in the onTouch handler
-//    private float mTotalUnconsumed;
-//    private final NestedScrollingParentHelper mNestedScrollingParentHelper;
-//    private final NestedScrollingChildHelper mNestedScrollingChildHelper;
-//    private final int[] mParentScrollConsumed = new int[2];
-//    private final int[] mParentOffsetInWindow = new int[2];
-//    private boolean mNestedScrollInProgress;
+    // spinner distance for an overscroll, configured with the distances above
+    private final TensionCurve mTensionCurve = new TensionCurve();
+
+    // If nested scrolling is enabled, the total amount that needed to be
+    // consumed by this as the nested scrolling parent is used in place of the
+    // overscroll determined by MOVE events in the onTouch handler
+    private float mTotalUnconsumed;
+    private final NestedScrollingParentHelper mNestedScrollingParentHelper;
+    private final NestedScrollingChildHelper mNestedScrollingChildHelper;
+    private final int[] mParentScrollConsumed = new int[2];
+    private final int[] mParentOffsetInWindow = new int[2];
+    private boolean mNestedScrollInProgress;
+    private boolean mUseNestedScroll;
+    // axes of the nested scroll in progress
+    private int mNestedScrollAxes;
+    // whether the nested scrolling child has consumed any scroll in this session
+    private boolean mNestedScrollConsumed;
+    // whether the spinner was started by the nested scroll in progress, the
+    // intercept path may own it otherwise
+    private boolean mNestedSpinner;
 
     private int mMediumAnimationDuration;
     private int mCurrentTargetOffset;
     // Whether or not the starting offset has been determined.
     private boolean mOriginalOffsetCalculated = false;
 
-    private float mInitialMotionX;
-    private float mInitialDownX;
-    private float mInitialMotionY;
-    private float mInitialDownY;
-    private boolean mIsBeingDragged;
-    private int mActivePointerId = INVALID_POINTER;
+    // intercept, drag and commit of touch gestures
+    private final GestureStateMachine mGesture = new GestureStateMachine(new GestureCallback());
     // Whether this item is scaled up rather than clipped
     private boolean mScale;
 
-    // Target is returning to its start offset because it was cancelled or a
-    // refresh was triggered.
-    private boolean mReturningToStart;
     private final DecelerateInterpolator mDecelerateInterpolator;
+    // the default interpolator of view animations
+    private final AccelerateDecelerateInterpolator mAccelerateDecelerateInterpolator;
     private static final int[] LAYOUT_ATTRS = new int[]{
             android.R.attr.enabled
     };
 
+    // null until the first drag, see ensureCircleView()
     private CircleImageView mCircleView;
+    // -1 unless the circle is a child, updated after the children change
     private int mCircleViewIndex = -1;
+    private boolean mCircleViewIndexValid;
+    // draw the spinner in dispatchDraw instead of having it as a child
+    private boolean mOverlayIndicator;
+    private int mCircleBackgroundColor = CIRCLE_BG_LIGHT;
 
     protected int mFrom;
 
@@ -135,10 +153,16 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
 
     protected int mOriginalOffset;
 
-    private static final int DIRECTION_TOP = 1;
-    private static final int DIRECTION_BOTTOM = 2;
-    private static final int DIRECTION_LEFT = 3;
-    private static final int DIRECTION_RIGHT = 4;
+    private static final int DIRECTION_TOP = GestureStateMachine.DIRECTION_TOP;
+    private static final int DIRECTION_BOTTOM = GestureStateMachine.DIRECTION_BOTTOM;
+    private static final int DIRECTION_LEFT = GestureStateMachine.DIRECTION_LEFT;
+    private static final int DIRECTION_RIGHT = GestureStateMachine.DIRECTION_RIGHT;
+
+    private static final int SCROLL_UP = GestureStateMachine.SCROLL_UP;
+    private static final int SCROLL_DOWN = GestureStateMachine.SCROLL_DOWN;
+    private static final int SCROLL_LEFT = GestureStateMachine.SCROLL_LEFT;
+    private static final int SCROLL_RIGHT = GestureStateMachine.SCROLL_RIGHT;
+    private static final int SCROLL_ALL = GestureStateMachine.SCROLL_ALL;
 
     private int mDirection;
 
@@ -146,23 +170,50 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     private Drawable mBottomDrawable;
     private Drawable mLeftDrawable;
     private Drawable mRightDrawable;
+    private DrawableSupplier mDrawableSupplier;
+    // 1 << DIRECTION_XXX already asked to mDrawableSupplier
+    private int mSuppliedDirections;
 
-    private boolean mCanScrollUp;
-    private boolean mCanScrollDown;
-    private boolean mCanScrollLeft;
-    private boolean mCanScrollRight;
+    private ScrollStateTracker mScrollStateTracker;
+    // a subclass answers canChildrenScrollXxx for its custom children
+    private final boolean mScrollChecksOverridden;
 
     private TargetOffsetSetter mTargetOffsetSetter;
 
-    private Animation mScaleAnimation;
+    private static final int ANIMATION_NONE = 0;
+    private static final int ANIMATION_SCALE_UP = 1;
+    private static final int ANIMATION_SCALE_DOWN = 2;
+    private static final int ANIMATION_TO_CORRECT_POSITION = 3;
+    private static final int ANIMATION_TO_START_POSITION = 4;
+    private static final int ANIMATION_SCALE_DOWN_TO_START = 5;
 
-    private Animation mScaleDownAnimation;
+    // What to do when an animation ends. ON_END_KEEP keeps the current one.
+    private static final int ON_END_KEEP = -1;
+    private static final int ON_END_NONE = 0;
+    private static final int ON_END_REFRESH = 1;
+    private static final int ON_END_SCALE_DOWN = 2;
 
-    private Animation mScaleDownToStartAnimation;
+    private final SpinnerAnimator mSpinnerAnimator = new SpinnerAnimator();
 
     private float mSpinnerFinalOffset;
 
     private boolean mNotify;
+    // the listener has been notified before the animation ends
+    private boolean mNotified;
+    private boolean mTriggerImmediately;
+
+    private boolean mCoalesceMoves;
+    private boolean mMovePending;
+    private float mPendingOverscroll;
+    private final Runnable mMoveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mMovePending = false;
+            if (mGesture.isBeingDragged()) {
+                moveSpinner(mPendingOverscroll);
+            }
+        }
+    };
 
     private int mCircleWidth;
 
@@ -170,56 +221,67 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
 
     private boolean mUseMarginForDrawer;
     private int mMarginForDrawer;
-    private boolean mIntercept;
 
-    private boolean mCancelByMultiTouch;
+    private boolean mMoveByTranslation;
+
+    private static final int OFFSET_TRACE_CAPACITY = 256;
+    // null unless diagnostics are enabled
+    private OffsetTrace mOffsetTrace;
+    private static final int GESTURE_TRACE_CAPACITY = 4096;
+    // null unless recording is enabled
+    private GestureTrace mGestureTrace;
 
     /* remove custom starting position */
     // Whether the client has set a custom starting position;
 //    private boolean mUsingCustomStart;
 
-    private AnimationListener mRefreshListener = new AnimationListener() {
-        @Override
-        public void onAnimationStart(Animation animation) {
-        }
-
-        @Override
-        public void onAnimationRepeat(Animation animation) {
-        }
-
-        @Override
-        public void onAnimationEnd(Animation animation) {
-            if (mRefreshing) {
-                if (mNotify && mListener != null) {
-                    switch (mDirection) {
-                        case DIRECTION_TOP:
-                            mListener.onOverscrollTop();
-                            break;
-                        case DIRECTION_BOTTOM:
-                            mListener.onOverscrollBottom();
-                            break;
-                        case DIRECTION_LEFT:
-                            mListener.onOverscrollLeft();
-                            break;
-                        case DIRECTION_RIGHT:
-                            mListener.onOverscrollRight();
-                            break;
+    private void onSpinnerAnimationEnd(int onEnd) {
+        switch (onEnd) {
+            case ON_END_REFRESH:
+                if (mRefreshing) {
+                    if (mNotify && mListener != null) {
+                        if (!mNotified) {
+                            notifyOverscroll();
+                        }
+                        setRefreshing(false);
                     }
-                    setRefreshing(false);
-                }
-            } else {
-                mCircleView.setVisibility(View.GONE);
-                // Return the circle to its start position
-                if (mScale) {
-                    setAnimationProgress(0 /* animation complete and view is hidden */);
                 } else {
-                    mTargetOffsetSetter.set(mOriginalOffset - mCurrentTargetOffset,
-                            true /* requires update */);
+                    setCircleVisibility(View.GONE);
+                    // Return the circle to its start position
+                    if (mScale) {
+                        setAnimationProgress(0 /* animation complete and view is hidden */);
+                    } else {
+                        mTargetOffsetSetter.set(mOriginalOffset - mCurrentTargetOffset,
+                                true /* requires update */);
+                    }
                 }
-            }
-            mCurrentTargetOffset = mTargetOffsetSetter.calculateCurrentOffset();
+                mCurrentTargetOffset = mTargetOffsetSetter.calculateCurrentOffset();
+                break;
+            case ON_END_SCALE_DOWN:
+                if (!mScale) {
+                    startScaleDownAnimation(ON_END_NONE);
+                }
+                break;
         }
-    };
+    }
+
+    private void notifyOverscroll() {
+        mNotified = true;
+        switch (mDirection) {
+            case DIRECTION_TOP:
+                mListener.onOverscrollTop();
+                break;
+            case DIRECTION_BOTTOM:
+                mListener.onOverscrollBottom();
+                break;
+            case DIRECTION_LEFT:
+                mListener.onOverscrollLeft();
+                break;
+            case DIRECTION_RIGHT:
+                mListener.onOverscrollRight();
+                break;
+        }
+    }
 
     /**
      * The refresh indicator starting and resting position is always positioned
@@ -237,9 +299,18 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
      */
     public void setProgressViewOffset(boolean scale, int start, int end) {
         mScale = scale;
-        mCircleView.setVisibility(View.GONE);
+        setCircleVisibility(View.GONE);
         mOriginalOffset = mCurrentTargetOffset = start;
         mSpinnerFinalOffset = end;
+        mTensionCurve.configure(mTotalDragDistance, mSpinnerFinalOffset);
+        if (mCircleView == null) {
+            return;
+        }
+        if (mMoveByTranslation) {
+            ViewCompat.setTranslationX(mCircleView, 0);
+            ViewCompat.setTranslationY(mCircleView, 0);
+            requestLayout();
+        }
         /* remove custom starting position */
 //        mUsingCustomStart = true;
         mCircleView.invalidate();
@@ -259,8 +330,11 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
      */
     public void setProgressViewEndTarget(boolean scale, int end) {
         mSpinnerFinalOffset = end;
+        mTensionCurve.configure(mTotalDragDistance, mSpinnerFinalOffset);
         mScale = scale;
-        mCircleView.invalidate();
+        if (mCircleView != null) {
+            mCircleView.invalidate();
+        }
     }
 
     /**
@@ -279,7 +353,9 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         // force the bounds of the progress circle inside the circle view to
         // update by setting it to null before updating its size and then
         // re-setting it
-        mCircleView.setImageDrawable(null);
+        if (mCircleView != null) {
+            mCircleView.setImageDrawable(null);
+        }
     }
 
     public Drawable getTopDrawable() {
@@ -314,16 +390,198 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         mRightDrawable = drawable;
     }
 
+    /**
+     * Ask the drawable of a direction when it is used for the first time
+     * instead of setting all of them up front. A drawable set by the setter
+     * of the direction is used as is.
+     *
+     * @param supplier
+     */
+    public void setDrawableSupplier(DrawableSupplier supplier) {
+        mDrawableSupplier = supplier;
+        mSuppliedDirections = 0;
+    }
+
     public void setExternalTarget(View target) {
         mExternalTarget = target;
+        mTarget = null;
     }
 
     public void useMarginForDrawer(boolean use) {
         mUseMarginForDrawer = use;
+        mGesture.useMarginForDrawer(mUseMarginForDrawer, mMarginForDrawer);
+    }
+
+    /**
+     * Notify {@link OnOverscrollListener} as soon as a swipe is released over
+     * the trigger distance instead of after the spinner settles at its
+     * correct position. The spinner animations are played as usual.
+     *
+     * @param immediately
+     */
+    public void setTriggerImmediately(boolean immediately) {
+        mTriggerImmediately = immediately;
+    }
+
+    /**
+     * Trigger also by a fast flick released short of the trigger distance.
+     * A flick triggers when its velocity at release is at least
+     * {@code minVelocity} and it would pass the trigger distance within
+     * {@code projectionMillis} at that velocity.
+     *
+     * @param minVelocity      Velocity of the finger in pixels per second. 0
+     *                         disables the trigger by flick.
+     * @param projectionMillis
+     */
+    public void setFlingTrigger(float minVelocity, int projectionMillis) {
+        mGesture.setFlingTrigger(minVelocity, projectionMillis);
     }
 
     public void setCancelByMultiTouch(boolean cancel) {
-        mCancelByMultiTouch = cancel;
+        mGesture.setCancelByMultiTouch(cancel);
+    }
+
+    /**
+     * Apply the moves of a drag once a frame with the latest position instead
+     * of every move event. The spinner ends up at the same position.
+     *
+     * @param coalesce
+     */
+    public void setCoalesceMoves(boolean coalesce) {
+        mCoalesceMoves = coalesce;
+        if (!coalesce) {
+            flushPendingMove();
+        }
+    }
+
+    /**
+     * Defer the scrollability check of the children until the touch slop is
+     * crossed, and then check only the direction of the swipe. Taps never
+     * walk the hierarchy. The intercept result is the same as the eager check.
+     *
+     * @param lazy
+     */
+    public void setLazyScrollCheck(boolean lazy) {
+        mGesture.setLazyScrollCheck(lazy);
+    }
+
+    /**
+     * Move the spinner by its translation instead of offsetting its layout
+     * position. The children are never reordered, so a drag costs only a
+     * redraw of the spinner instead of a layout pass per frame.
+     *
+     * @param translation
+     */
+    public void setMoveByTranslation(boolean translation) {
+        if (mMoveByTranslation == translation) {
+            return;
+        }
+        mMoveByTranslation = translation;
+        if (mCircleView != null) {
+            ViewCompat.setTranslationX(mCircleView, 0);
+            ViewCompat.setTranslationY(mCircleView, 0);
+            requestLayout();
+        }
+    }
+
+    /**
+     * Record every offset of the spinner into a preallocated ring buffer for
+     * {@link #dumpOffsetTrace(PrintWriter)}. Nothing is recorded while disabled.
+     *
+     * @param enabled
+     */
+    public void setOffsetTraceEnabled(boolean enabled) {
+        if (enabled && mOffsetTrace == null) {
+            mOffsetTrace = new OffsetTrace(OFFSET_TRACE_CAPACITY);
+        } else if (!enabled) {
+            mOffsetTrace = null;
+        }
+    }
+
+    /**
+     * Print the recorded offsets of the spinner, from the oldest one.
+     *
+     * @param writer
+     */
+    public void dumpOffsetTrace(PrintWriter writer) {
+        if (mOffsetTrace == null) {
+            writer.println("offset trace is disabled");
+            writer.flush();
+        } else {
+            mOffsetTrace.dump(writer);
+        }
+    }
+
+    /**
+     * Record the touch events passed to the gesture logic and the scroll
+     * states of the children it asks into a preallocated ring buffer for
+     * {@link #dumpGestureTrace(OutputStream)}. Nothing is recorded while
+     * disabled.
+     *
+     * @param enabled
+     */
+    public void setGestureTraceEnabled(boolean enabled) {
+        if (enabled && mGestureTrace == null) {
+            mGestureTrace = new GestureTrace(GESTURE_TRACE_CAPACITY);
+        } else if (!enabled) {
+            mGestureTrace = null;
+        }
+    }
+
+    /**
+     * Write the recorded gestures in the binary trace format, from the
+     * oldest one, with the current configuration of this layout to replay them
+     * with. Nothing is written while disabled.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void dumpGestureTrace(OutputStream out) throws IOException {
+        if (mGestureTrace != null) {
+            final GestureTrace.Settings settings = mGestureTrace.getSettings();
+            settings.width = getWidth();
+            settings.flags = mTriggerImmediately ? GestureTrace.FLAG_TRIGGER_IMMEDIATELY : 0;
+            mGesture.writeSettings(settings);
+            mGestureTrace.writeTo(out);
+        }
+    }
+
+    /**
+     * Receive overscroll from nested scrolling children in addition to
+     * intercepting touch events. A child that supports nested scrolling
+     * reports the scroll it could not consume, so neither the scrollability
+     * check nor the intercept is needed on its scrolling axes. Other children
+     * and the other axis keep using the intercept.
+     *
+     * @param use
+     */
+    public void useNestedScroll(boolean use) {
+        mUseNestedScroll = use;
+    }
+
+    /**
+     * Track the scroll states of the scrollable descendants instead of asking
+     * all of them at ACTION_DOWN. The first touch after a layout collects again
+     * only the parts of the hierarchy that have changed. Views that cannot be
+     * observed are still asked each time they are hit, and touches right after
+     * a view is removed fall back to walking the hierarchy. The tracker is not
+     * asked while a subclass overrides canChildrenScrollXxx.
+     *
+     * @param track
+     */
+    public void setScrollStateTracking(boolean track) {
+        if (track == (mScrollStateTracker != null)) {
+            return;
+        }
+        if (track) {
+            mScrollStateTracker = new ScrollStateTracker(this, SCROLL_ALL);
+            if (getWindowToken() != null) {
+                mScrollStateTracker.attach();
+            }
+        } else {
+            mScrollStateTracker.detach();
+            mScrollStateTracker = null;
+        }
     }
 
     /**
@@ -344,13 +602,16 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     public PuddingLayout(Context context, AttributeSet attrs) {
         super(context, attrs);
 
-        mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        mScrollChecksOverridden = overridesScrollChecks(getClass());
+
+        mGesture.setTouchSlop(ViewConfiguration.get(context).getScaledTouchSlop());
 
         mMediumAnimationDuration = getResources().getInteger(
                 android.R.integer.config_mediumAnimTime);
 
         setWillNotDraw(false);
         mDecelerateInterpolator = new DecelerateInterpolator(DECELERATE_INTERPOLATION_FACTOR);
+        mAccelerateDecelerateInterpolator = new AccelerateDecelerateInterpolator();
 
         final TypedArray a = context.obtainStyledAttributes(attrs, LAYOUT_ATTRS);
         setEnabled(a.getBoolean(0, true));
@@ -360,21 +621,47 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         mCircleWidth = (int) (CIRCLE_DIAMETER * metrics.density);
         mCircleHeight = (int) (CIRCLE_DIAMETER * metrics.density);
 
-        createProgressView();
         ViewCompat.setChildrenDrawingOrderEnabled(this, true);
         // the absolute offset has to take into account that the circle starts at an offset
         mSpinnerFinalOffset = DEFAULT_CIRCLE_TARGET * metrics.density;
         mTotalDragDistance = mSpinnerFinalOffset;
-        /* removed nested scroll support */
-//        mNestedScrollingParentHelper = new NestedScrollingParentHelper(this);
-//
-//        mNestedScrollingChildHelper = new NestedScrollingChildHelper(this);
-//        setNestedScrollingEnabled(true);
+        mGesture.setTotalDragDistance(mTotalDragDistance);
+        mTensionCurve.configure(mTotalDragDistance, mSpinnerFinalOffset);
+        mNestedScrollingParentHelper = new NestedScrollingParentHelper(this);
+
+        mNestedScrollingChildHelper = new NestedScrollingChildHelper(this);
+        setNestedScrollingEnabled(true);
 
         mMarginForDrawer = (int) (20 * metrics.density + 0.5f);
+        mGesture.useMarginForDrawer(mUseMarginForDrawer, mMarginForDrawer);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mScrollStateTracker != null) {
+            mScrollStateTracker.attach();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (mMovePending) {
+            removeCallbacks(mMoveRunnable);
+            mMovePending = false;
+        }
+        if (mScrollStateTracker != null) {
+            mScrollStateTracker.detach();
+        }
+        super.onDetachedFromWindow();
     }
 
     protected int getChildDrawingOrder(int childCount, int i) {
+        if (!mCircleViewIndexValid) {
+            // -1 in overlay mode as the circle is not a child
+            mCircleViewIndex = indexOfChild(mCircleView);
+            mCircleViewIndexValid = true;
+        }
         if (mCircleViewIndex < 0) {
             return i;
         } else if (i == childCount - 1) {
@@ -389,10 +676,96 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         }
     }
 
-    private void createProgressView() {
-        mCircleView = new CircleImageView(getContext(), CIRCLE_BG_LIGHT, CIRCLE_DIAMETER / 2);
+    /**
+     * Create the spinner on the first drag, as most layouts never see one.
+     * It is measured and laid out right away to be moved before the next
+     * layout pass.
+     */
+    private void ensureCircleView() {
+        if (mCircleView != null) {
+            return;
+        }
+        if (mOverlayIndicator) {
+            mCircleView = new CircleImageView(getContext(), mCircleBackgroundColor,
+                    CIRCLE_DIAMETER / 2, false /* use elevation */);
+        } else {
+            mCircleView = new CircleImageView(getContext(), mCircleBackgroundColor,
+                    CIRCLE_DIAMETER / 2);
+        }
         mCircleView.setVisibility(View.GONE);
-        addView(mCircleView);
+        if (!mOverlayIndicator) {
+            addView(mCircleView);
+        }
+        mCircleView.measure(MeasureSpec.makeMeasureSpec(mCircleWidth, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(mCircleHeight, MeasureSpec.EXACTLY));
+        layoutCircleView(mMoveByTranslation ? mOriginalOffset : mCurrentTargetOffset);
+    }
+
+    /**
+     * Draw the spinner directly in {@link #dispatchDraw(Canvas)} instead of
+     * adding it as a child. This layout then has no extra child to measure,
+     * lay out and reorder. The spinner draws its shadow from a bitmap in this
+     * mode because elevation is rendered only for attached views, so it looks
+     * the same as the child spinner only before API 21.
+     *
+     * @param overlay
+     */
+    public void useOverlayIndicator(boolean overlay) {
+        if (mOverlayIndicator == overlay) {
+            return;
+        }
+        mOverlayIndicator = overlay;
+        ViewCompat.setChildrenDrawingOrderEnabled(this, !overlay);
+        final CircleImageView old = mCircleView;
+        if (old == null) {
+            // created in the mode on the first drag
+            return;
+        }
+        if (overlay) {
+            removeView(old);
+            mCircleView = new CircleImageView(getContext(), mCircleBackgroundColor,
+                    CIRCLE_DIAMETER / 2, false /* use elevation */);
+        } else {
+            mCircleView = new CircleImageView(getContext(), mCircleBackgroundColor,
+                    CIRCLE_DIAMETER / 2);
+            addView(mCircleView);
+        }
+        mCircleView.setVisibility(old.getVisibility());
+        mCircleView.setImageDrawable(old.getDrawable());
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        if (mOverlayIndicator && mCircleView != null
+                && mCircleView.getVisibility() == View.VISIBLE) {
+            final int saveCount = canvas.save();
+            canvas.translate(mCircleView.getLeft(), mCircleView.getTop());
+            // translation, rotation and scale around the pivot
+            canvas.concat(mCircleView.getMatrix());
+            mCircleView.draw(canvas);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    private void setCircleVisibility(int visibility) {
+        if (mCircleView == null) {
+            return;
+        }
+        mCircleView.setVisibility(visibility);
+        invalidateOverlay();
+    }
+
+    /**
+     * The spinner drawn as an overlay has no parent to invalidate, so every
+     * change of it has to invalidate this layout.
+     */
+    private void invalidateOverlay() {
+        if (mOverlayIndicator) {
+            invalidate();
+        }
     }
 
     /**
@@ -419,6 +792,7 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     public void setRefreshing(boolean refreshing) {
         if (refreshing && mRefreshing != refreshing) {
             // scale and show
+            ensureCircleView();
             mRefreshing = refreshing;
             int endTarget = 0;
             /* remove custom starting position */
@@ -431,26 +805,16 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
             mTargetOffsetSetter.set(endTarget - mCurrentTargetOffset,
                     true /* requires update */);
             mNotify = false;
-            startScaleUpAnimation(mRefreshListener);
+            startScaleUpAnimation(ON_END_REFRESH);
         } else {
             setRefreshing(refreshing, false /* notify */);
         }
     }
 
-    private void startScaleUpAnimation(AnimationListener listener) {
-        mCircleView.setVisibility(View.VISIBLE);
-        mScaleAnimation = new Animation() {
-            @Override
-            public void applyTransformation(float interpolatedTime, Transformation t) {
-                setAnimationProgress(interpolatedTime);
-            }
-        };
-        mScaleAnimation.setDuration(mMediumAnimationDuration);
-        if (listener != null) {
-            mCircleView.setAnimationListener(listener);
-        }
-        mCircleView.clearAnimation();
-        mCircleView.startAnimation(mScaleAnimation);
+    private void startScaleUpAnimation(int onEnd) {
+        setCircleVisibility(View.VISIBLE);
+        mSpinnerAnimator.start(ANIMATION_SCALE_UP, mMediumAnimationDuration,
+                mAccelerateDecelerateInterpolator, onEnd);
     }
 
     /**
@@ -464,32 +828,30 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
             ViewCompat.setScaleX(mCircleView, progress);
             ViewCompat.setScaleY(mCircleView, progress);
         }
+        invalidateOverlay();
     }
 
     private void setRefreshing(boolean refreshing, final boolean notify) {
         if (mRefreshing != refreshing) {
             mNotify = notify;
-            ensureTarget();
             mRefreshing = refreshing;
             if (mRefreshing) {
-                animateOffsetToCorrectPosition(mCurrentTargetOffset, mRefreshListener);
+                mNotified = false;
+                animateOffsetToCorrectPosition(mCurrentTargetOffset, ON_END_REFRESH);
+                if (mNotify && mTriggerImmediately && mListener != null) {
+                    // the confirmation animation goes on while the action runs
+                    notifyOverscroll();
+                }
             } else {
-                startScaleDownAnimation(mRefreshListener);
+                startScaleDownAnimation(ON_END_REFRESH);
             }
         }
     }
 
-    private void startScaleDownAnimation(AnimationListener listener) {
-        mScaleDownAnimation = new Animation() {
-            @Override
-            public void applyTransformation(float interpolatedTime, Transformation t) {
-                setAnimationProgress(1 - interpolatedTime);
-            }
-        };
-        mScaleDownAnimation.setDuration(SCALE_DOWN_DURATION);
-        mCircleView.setAnimationListener(listener);
-        mCircleView.clearAnimation();
-        mCircleView.startAnimation(mScaleDownAnimation);
+    private void startScaleDownAnimation(int onEnd) {
+        // unlike the others, this replaces the end action even with ON_END_NONE
+        mSpinnerAnimator.start(ANIMATION_SCALE_DOWN, SCALE_DOWN_DURATION,
+                mAccelerateDecelerateInterpolator, onEnd);
     }
 
     /**
@@ -507,7 +869,11 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
      * @param color
      */
     public void setProgressBackgroundColorSchemeColor(@ColorInt int color) {
-        mCircleView.setBackgroundColor(color);
+        mCircleBackgroundColor = color;
+        if (mCircleView != null) {
+            mCircleView.setBackgroundColor(color);
+            invalidateOverlay();
+        }
     }
 
     /**
@@ -518,9 +884,12 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         return mRefreshing;
     }
 
+    /**
+     * Find the target if there is none. The target is dropped only when the
+     * children or the external target change, so that measure, layout and
+     * intercept scan the children once after a change and never otherwise.
+     */
     private void ensureTarget() {
-        // Don't bother getting the parent height if the parent hasn't been laid
-        // out yet.
         if (mTarget == null) {
             if (mExternalTarget != null) {
                 mTarget = mExternalTarget;
@@ -543,15 +912,14 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
      */
     public void setDistanceToTriggerSync(int distance) {
         mTotalDragDistance = distance;
+        mGesture.setTotalDragDistance(mTotalDragDistance);
+        mTensionCurve.configure(mTotalDragDistance, mSpinnerFinalOffset);
     }
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         final int width = getMeasuredWidth();
         final int height = getMeasuredHeight();
-        if (getChildCount() == 0) {
-            return;
-        }
         if (mTarget == null) {
             ensureTarget();
         }
@@ -565,24 +933,34 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
             final int childHeight = height - getPaddingTop() - getPaddingBottom();
             child.layout(childLeft, childTop, childLeft + childWidth, childTop + childHeight);
         }
+        // the translation holds the rest of the offset
+        layoutCircleView(mMoveByTranslation ? mOriginalOffset : mCurrentTargetOffset);
+    }
+
+    private void layoutCircleView(int offset) {
+        if (mCircleView == null) {
+            return;
+        }
+        final int width = getMeasuredWidth();
+        final int height = getMeasuredHeight();
         int circleWidth = mCircleView.getMeasuredWidth();
         int circleHeight = mCircleView.getMeasuredHeight();
         switch (mDirection) {
             case DIRECTION_TOP:
-                mCircleView.layout((width / 2 - circleWidth / 2), mCurrentTargetOffset,
-                        (width / 2 + circleWidth / 2), mCurrentTargetOffset + circleHeight);
+                mCircleView.layout((width / 2 - circleWidth / 2), offset,
+                        (width / 2 + circleWidth / 2), offset + circleHeight);
                 break;
             case DIRECTION_BOTTOM:
-                mCircleView.layout((width / 2 - circleWidth / 2), height - (mCurrentTargetOffset + circleHeight),
-                        (width / 2 + circleWidth / 2), height - mCurrentTargetOffset);
+                mCircleView.layout((width / 2 - circleWidth / 2), height - (offset + circleHeight),
+                        (width / 2 + circleWidth / 2), height - offset);
                 break;
             case DIRECTION_LEFT:
-                mCircleView.layout(mCurrentTargetOffset, (height / 2 - circleHeight / 2),
-                        mCurrentTargetOffset + circleWidth, (height / 2 + circleHeight / 2));
+                mCircleView.layout(offset, (height / 2 - circleHeight / 2),
+                        offset + circleWidth, (height / 2 + circleHeight / 2));
                 break;
             case DIRECTION_RIGHT:
-                mCircleView.layout(width - (mCurrentTargetOffset + circleWidth), (height / 2 - circleHeight / 2),
-                        width - mCurrentTargetOffset, (height / 2 + circleHeight / 2));
+                mCircleView.layout(width - (offset + circleWidth), (height / 2 - circleHeight / 2),
+                        width - offset, (height / 2 + circleHeight / 2));
                 break;
         }
     }
@@ -601,21 +979,47 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
                     MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(
                     getMeasuredHeight() - getPaddingTop() - getPaddingBottom(), MeasureSpec.EXACTLY));
         }
-        mCircleView.measure(MeasureSpec.makeMeasureSpec(mCircleWidth, MeasureSpec.EXACTLY),
-                MeasureSpec.makeMeasureSpec(mCircleHeight, MeasureSpec.EXACTLY));
+        if (mCircleView != null) {
+            mCircleView.measure(MeasureSpec.makeMeasureSpec(mCircleWidth, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(mCircleHeight, MeasureSpec.EXACTLY));
+        }
         /* remove custom starting position */
 //        if (!mUsingCustomStart && !mOriginalOffsetCalculated) {
         if (!mOriginalOffsetCalculated) {
             mOriginalOffsetCalculated = true;
-            mCurrentTargetOffset = mOriginalOffset = -mCircleView.getMeasuredHeight();
+            // the measured height of the circle
+            mCurrentTargetOffset = mOriginalOffset = -mCircleHeight;
         }
-        mCircleViewIndex = -1;
-        // Get the index of the circleview.
-        for (int index = 0; index < getChildCount(); index++) {
-            if (getChildAt(index) == mCircleView) {
-                mCircleViewIndex = index;
-                break;
-            }
+    }
+
+    // Hidden before API 23 but called the same way. Older versions call it
+    // before the child is removed from the array, so nothing is looked up
+    // here but on the next use.
+    @Override
+    public void onViewAdded(View child) {
+        super.onViewAdded(child);
+        mCircleViewIndexValid = false;
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        if (child == mTarget) {
+            mTarget = null;
+        }
+        mCircleViewIndexValid = false;
+    }
+
+    @Override
+    public void bringChildToFront(View child) {
+        // reorders the children without onViewRemoved and onViewAdded
+        super.bringChildToFront(child);
+        if (child == mCircleView) {
+            // done on every move unless moved by translation
+            mCircleViewIndex = getChildCount() - 1;
+            mCircleViewIndexValid = true;
+        } else {
+            mCircleViewIndexValid = false;
         }
     }
 
@@ -704,131 +1108,387 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         return false;
     }
 
-    @Override
-    public boolean onInterceptTouchEvent(MotionEvent ev) {
-        ensureTarget();
-
-        final int action = MotionEventCompat.getActionMasked(ev);
-
-        if (mReturningToStart && action == MotionEvent.ACTION_DOWN) {
-            mReturningToStart = false;
+    private static boolean overridesScrollChecks(Class<?> cls) {
+        final String[] names = {"canChildrenScrollUp", "canChildrenScrollDown",
+                "canChildrenScrollLeft", "canChildrenScrollRight"};
+        for (String name : names) {
+            try {
+                if (cls.getMethod(name).getDeclaringClass() != PuddingLayout.class) {
+                    return true;
+                }
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
         }
+        return false;
+    }
 
-        if (!isEnabled() || mReturningToStart || mRefreshing) {
-        /* removed nested scroll support */
-//                || mNestedScrollInProgress) {
-            // Fail fast if we're not in a state where a swipe is possible
-            return false;
+    private int checkChildrenScroll(float x, float y, int directions) {
+        if (mScrollChecksOverridden) {
+            return checkChildrenScrollByOverrides(directions);
         }
-
-        switch (action) {
-            case MotionEvent.ACTION_DOWN: {
-                mActivePointerId = MotionEventCompat.getPointerId(ev, 0);
-                mIsBeingDragged = false;
-                final int index = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
-                if (index < 0) {
-                    return false;
-                }
-                mInitialDownX = MotionEventCompat.getX(ev, index);
-                mInitialDownY = MotionEventCompat.getY(ev, index);
-                mCanScrollUp = canChildrenScrollUp();
-                mCanScrollDown = canChildrenScrollDown();
-                mCanScrollLeft = canChildrenScrollLeft();
-                mCanScrollRight = canChildrenScrollRight();
-
-                mIntercept = (!mUseMarginForDrawer || (mInitialDownX > mMarginForDrawer && mInitialDownX < (getWidth() - mMarginForDrawer)))
-                        && (mCanScrollUp || mCanScrollDown || mCanScrollLeft || mCanScrollRight);
-                break;
+        if (mScrollStateTracker != null) {
+            final int scroll = mScrollStateTracker.query(x, y, directions);
+            if (scroll != ScrollStateTracker.UNKNOWN) {
+                return scroll;
             }
+        }
+        return probeChildrenScroll(x, y, directions);
+    }
 
-            case MotionEvent.ACTION_MOVE:
-                if (!mIntercept) {
-                    return false;
-                }
+    /**
+     * Ask canChildrenScrollXxx of a subclass, which knows its custom children
+     * better than the probe.
+     */
+    private int checkChildrenScrollByOverrides(int directions) {
+        int found = 0;
+        if ((directions & SCROLL_UP) != 0 && canChildrenScrollUp()) {
+            found |= SCROLL_UP;
+        }
+        if ((directions & SCROLL_DOWN) != 0 && canChildrenScrollDown()) {
+            found |= SCROLL_DOWN;
+        }
+        if ((directions & SCROLL_LEFT) != 0 && canChildrenScrollLeft()) {
+            found |= SCROLL_LEFT;
+        }
+        if ((directions & SCROLL_RIGHT) != 0 && canChildrenScrollRight()) {
+            found |= SCROLL_RIGHT;
+        }
+        return found;
+    }
 
-                if (mActivePointerId == INVALID_POINTER) {
-                    Log.e(LOG_TAG, "Got ACTION_MOVE event but don't have an active pointer id.");
-                    return false;
-                }
+    /**
+     * Walks the hierarchy once and collects the scrollable directions of the
+     * visible descendants under the given point. It is used unless a subclass
+     * overrides any of canChildrenScrollXxx. Unlike canChildrenScrollXxx,
+     * views that are not hit by the point are never visited and all
+     * directions are answered by the same walk.
+     *
+     * @param x          X in this view's coordinates.
+     * @param y          Y in this view's coordinates.
+     * @param directions Mask of SCROLL_XXX to check.
+     * @return Mask of SCROLL_XXX that can scroll, restricted to directions.
+     */
+    int probeChildrenScroll(float x, float y, int directions) {
+        return probeScroll(this, x, y, directions, 0);
+    }
 
-                final int index = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
-                if (index < 0) {
-                    return false;
-                }
-                if (!mIsBeingDragged) {
-                    final float x = MotionEventCompat.getX(ev, index);
-                    final float y = MotionEventCompat.getY(ev, index);
-                    final float xDiff = x - mInitialDownX;
-                    final float yDiff = y - mInitialDownY;
-                    // give priority to vertical swipe
-                    if (yDiff > mTouchSlop) {
-                        if (!mCanScrollUp && mTopDrawable != null) {
-                            mCircleView.setImageDrawable(mTopDrawable);
-                            mTargetOffsetSetter = mTargetOffsetTopSetter;
-                            mTargetOffsetSetter.set(mOriginalOffset - mTargetOffsetSetter.calculateCurrentOffset(), true);
-                            mInitialMotionY = mInitialDownY + mTouchSlop;
-                            mIsBeingDragged = true;
-                            mDirection = DIRECTION_TOP;
-                        } else {
-                            requestDisallowInterceptTouchEvent(true);
-                        }
-                    } else if (-yDiff > mTouchSlop) {
-                        if (!mCanScrollDown && mBottomDrawable != null) {
-                            mCircleView.setImageDrawable(mBottomDrawable);
-                            mTargetOffsetSetter = mTargetOffsetBottomSetter;
-                            mTargetOffsetSetter.set(mOriginalOffset - mTargetOffsetSetter.calculateCurrentOffset(), true);
-                            mInitialMotionY = mInitialDownY - mTouchSlop;
-                            mIsBeingDragged = true;
-                            mDirection = DIRECTION_BOTTOM;
-                        } else {
-                            requestDisallowInterceptTouchEvent(true);
-                        }
-                    } else if (xDiff > mTouchSlop) {
-                        if (!mCanScrollLeft && mLeftDrawable != null) {
-                            mCircleView.setImageDrawable(mLeftDrawable);
-                            mTargetOffsetSetter = mTargetOffsetLeftSetter;
-                            mTargetOffsetSetter.set(mOriginalOffset - mTargetOffsetSetter.calculateCurrentOffset(), true);
-                            mInitialMotionX = mInitialDownX + mTouchSlop;
-                            mIsBeingDragged = true;
-                            mDirection = DIRECTION_LEFT;
-                        } else {
-                            requestDisallowInterceptTouchEvent(true);
-                        }
-                    } else if (-xDiff > mTouchSlop) {
-                        if (!mCanScrollRight && mRightDrawable != null) {
-                            mCircleView.setImageDrawable(mRightDrawable);
-                            mTargetOffsetSetter = mTargetOffsetRightSetter;
-                            mTargetOffsetSetter.set(mOriginalOffset - mTargetOffsetSetter.calculateCurrentOffset(), true);
-                            mInitialMotionX = mInitialDownX - mTouchSlop;
-                            mIsBeingDragged = true;
-                            mDirection = DIRECTION_RIGHT;
-                        } else {
-                            requestDisallowInterceptTouchEvent(true);
-                        }
-                    }
+    private int probeScroll(ViewGroup target, float x, float y, int directions, int found) {
+        final float scrolledX = x + target.getScrollX();
+        final float scrolledY = y + target.getScrollY();
+        // walk from the top-most child like dispatchTouchEvent
+        for (int i = target.getChildCount() - 1; i >= 0; --i) {
+            final View child = target.getChildAt(i);
+            if (child.getVisibility() != VISIBLE || child == mCircleView) {
+                continue;
+            }
+            final float localX = scrolledX - child.getLeft() - ViewCompat.getTranslationX(child);
+            final float localY = scrolledY - child.getTop() - ViewCompat.getTranslationY(child);
+            if (localX < 0 || localY < 0
+                    || localX >= child.getWidth() || localY >= child.getHeight()) {
+                continue;
+            }
+            found |= scrollableDirections(child, directions & ~found);
+            if (found == directions) {
+                return found;
+            }
+            if (child instanceof ViewGroup) {
+                found = probeScroll((ViewGroup) child, localX, localY, directions, found);
+                if (found == directions) {
+                    return found;
                 }
-                break;
+            }
+        }
+        return found;
+    }
 
-            case MotionEvent.ACTION_POINTER_DOWN:
-                if (!mIsBeingDragged && mCancelByMultiTouch) {
-                    mReturningToStart = true;
-                    cancelSpinner();
-                    mActivePointerId = INVALID_POINTER;
-                }
+    /**
+     * Show the drawable of the direction on the spinner and put the spinner at
+     * its start position for the direction.
+     *
+     * @param direction One of DIRECTION_XXX.
+     * @param takeover  Keep the spinner where it was stopped by
+     *                  {@link #interruptSpinner()} to drag it from there.
+     * @return false if the direction has no drawable.
+     */
+    private boolean prepareSpinner(int direction, boolean takeover) {
+        final TargetOffsetSetter setter;
+        switch (direction) {
+            case DIRECTION_TOP:
+                setter = mTargetOffsetTopSetter;
                 break;
-
-            case MotionEventCompat.ACTION_POINTER_UP:
-                onSecondaryPointerUp(ev);
+            case DIRECTION_BOTTOM:
+                setter = mTargetOffsetBottomSetter;
                 break;
-
-            case MotionEvent.ACTION_UP:
-            case MotionEvent.ACTION_CANCEL:
-                mIsBeingDragged = false;
-                mActivePointerId = INVALID_POINTER;
+            case DIRECTION_LEFT:
+                setter = mTargetOffsetLeftSetter;
+                break;
+            case DIRECTION_RIGHT:
+                setter = mTargetOffsetRightSetter;
                 break;
+            default:
+                return false;
+        }
+        final Drawable drawable = getDirectionDrawable(direction);
+        if (drawable == null) {
+            return false;
+        }
+        ensureCircleView();
+        mCircleView.setImageDrawable(drawable);
+        invalidateOverlay();
+        mTargetOffsetSetter = setter;
+        if (takeover) {
+            // the spinner of the same direction is already there
+        } else if (mMoveByTranslation) {
+            // put the spinner on the side of the direction now instead of
+            // waiting for the next layout pass
+            mDirection = direction;
+            ViewCompat.setTranslationX(mCircleView, 0);
+            ViewCompat.setTranslationY(mCircleView, 0);
+            layoutCircleView(mOriginalOffset);
+            mCurrentTargetOffset = mTargetOffsetSetter.calculateCurrentOffset();
+        } else {
+            mTargetOffsetSetter.set(mOriginalOffset - mTargetOffsetSetter.calculateCurrentOffset(), true);
+            mDirection = direction;
+        }
+        return true;
+    }
+
+    /**
+     * @param direction One of DIRECTION_XXX.
+     * @return The drawable set for the direction, or the one supplied by
+     * {@link #mDrawableSupplier} when the direction is used the first time.
+     */
+    private Drawable getDirectionDrawable(int direction) {
+        final int bit = 1 << direction;
+        final boolean ask = mDrawableSupplier != null && (mSuppliedDirections & bit) == 0;
+        switch (direction) {
+            case DIRECTION_TOP:
+                if (mTopDrawable == null && ask) {
+                    mTopDrawable = mDrawableSupplier.getTopDrawable();
+                }
+                mSuppliedDirections |= bit;
+                return mTopDrawable;
+            case DIRECTION_BOTTOM:
+                if (mBottomDrawable == null && ask) {
+                    mBottomDrawable = mDrawableSupplier.getBottomDrawable();
+                }
+                mSuppliedDirections |= bit;
+                return mBottomDrawable;
+            case DIRECTION_LEFT:
+                if (mLeftDrawable == null && ask) {
+                    mLeftDrawable = mDrawableSupplier.getLeftDrawable();
+                }
+                mSuppliedDirections |= bit;
+                return mLeftDrawable;
+            case DIRECTION_RIGHT:
+                if (mRightDrawable == null && ask) {
+                    mRightDrawable = mDrawableSupplier.getRightDrawable();
+                }
+                mSuppliedDirections |= bit;
+                return mRightDrawable;
+        }
+        return null;
+    }
+
+    /**
+     * @param axis One of ViewCompat.SCROLL_AXIS_XXX.
+     * @return Whether a nested scrolling child is reporting overscroll on the axis.
+     */
+    private boolean isNestedScrolling(int axis) {
+        return mNestedScrollInProgress && (mNestedScrollAxes & axis) != 0;
+    }
+
+    static int scrollableDirections(View view, int directions) {
+        int found = 0;
+        if ((directions & SCROLL_UP) != 0 && ViewCompat.canScrollVertically(view, -1)) {
+            found |= SCROLL_UP;
+        }
+        if ((directions & SCROLL_DOWN) != 0 && ViewCompat.canScrollVertically(view, 1)) {
+            found |= SCROLL_DOWN;
+        }
+        if ((directions & SCROLL_LEFT) != 0 && ViewCompat.canScrollHorizontally(view, -1)) {
+            found |= SCROLL_LEFT;
+        }
+        if ((directions & SCROLL_RIGHT) != 0 && ViewCompat.canScrollHorizontally(view, 1)) {
+            found |= SCROLL_RIGHT;
+        }
+        return found;
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent ev) {
+        if (mTarget == null) {
+            ensureTarget();
+        }
+        return dispatchGesture(ev, MotionEventCompat.getActionMasked(ev), true);
+    }
+
+    /**
+     * Pass the event to {@link #mGesture} with the pointer that it needs.
+     */
+    private boolean dispatchGesture(MotionEvent ev, int action, boolean intercept) {
+        int pointerId = mGesture.getActivePointerId();
+        float x = 0;
+        float y = 0;
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+                pointerId = MotionEventCompat.getPointerId(ev, 0);
+                x = MotionEventCompat.getX(ev, 0);
+                y = MotionEventCompat.getY(ev, 0);
+                break;
+            case MotionEvent.ACTION_MOVE:
+            case MotionEvent.ACTION_UP: {
+                final int index = MotionEventCompat.findPointerIndex(ev, pointerId);
+                if (index < 0) {
+                    if (!intercept) {
+                        Log.e(LOG_TAG, "Got " + (action == MotionEvent.ACTION_MOVE ?
+                                "ACTION_MOVE" : "ACTION_UP")
+                                + " event but have an invalid active pointer id.");
+                    }
+                    pointerId = INVALID_POINTER;
+                } else {
+                    x = MotionEventCompat.getX(ev, index);
+                    y = MotionEventCompat.getY(ev, index);
+                    if (!intercept && action == MotionEvent.ACTION_MOVE) {
+                        final int historySize = ev.getHistorySize();
+                        for (int h = 0; h < historySize; ++h) {
+                            final long time = ev.getHistoricalEventTime(h);
+                            final float historicalX = ev.getHistoricalX(index, h);
+                            final float historicalY = ev.getHistoricalY(index, h);
+                            if (mGestureTrace != null) {
+                                mGestureTrace.record(GestureTrace.TYPE_HISTORY, action, pointerId,
+                                        historicalX, historicalY, time);
+                            }
+                            mGesture.addHistoricalSample(time, historicalX, historicalY);
+                        }
+                    }
+                }
+                break;
+            }
+            case MotionEventCompat.ACTION_POINTER_DOWN: {
+                final int index = MotionEventCompat.getActionIndex(ev);
+                pointerId = MotionEventCompat.getPointerId(ev, index);
+                x = MotionEventCompat.getX(ev, index);
+                y = MotionEventCompat.getY(ev, index);
+                break;
+            }
+            case MotionEventCompat.ACTION_POINTER_UP: {
+                final int index = MotionEventCompat.getActionIndex(ev);
+                if (MotionEventCompat.getPointerId(ev, index) == pointerId) {
+                    // This was our active pointer going up. Choose a new
+                    // active pointer and adjust accordingly.
+                    pointerId = MotionEventCompat.getPointerId(ev, index == 0 ? 1 : 0);
+                }
+                break;
+            }
+        }
+        if (mGestureTrace != null) {
+            mGestureTrace.record(intercept ? GestureTrace.TYPE_INTERCEPT : GestureTrace.TYPE_TOUCH,
+                    action, pointerId, x, y, ev.getEventTime());
+        }
+        if (intercept) {
+            return mGesture.onInterceptTouchEvent(action, pointerId, x, y, ev.getEventTime());
+        }
+        return mGesture.onTouchEvent(action, pointerId, x, y, ev.getEventTime());
+    }
+
+    /**
+     * Stop the spinner animated after a gesture so that a new gesture can
+     * take it over from where it is. An action already committed is
+     * delivered first. The spinner shown by {@link #setRefreshing(boolean)}
+     * is left to the client.
+     *
+     * @return DIRECTION_XXX of the stopped spinner, or 0.
+     */
+    private int interruptSpinner() {
+        if (!mSpinnerAnimator.isRunning() || (mRefreshing && !mNotify)) {
+            return 0;
+        }
+        mSpinnerAnimator.cancel();
+        if (mRefreshing) {
+            mRefreshing = false;
+            if (mListener != null && !mNotified) {
+                notifyOverscroll();
+            }
+        }
+        mCurrentTargetOffset = mTargetOffsetSetter.calculateCurrentOffset();
+        return mDirection;
+    }
+
+    /**
+     * for tests
+     */
+    boolean isSpinnerAnimating() {
+        return mSpinnerAnimator.isRunning();
+    }
+
+    private final class GestureCallback implements GestureStateMachine.Callback {
+        @Override
+        public boolean isEnabled() {
+            return PuddingLayout.this.isEnabled();
+        }
+
+        @Override
+        public boolean isRefreshing() {
+            return mRefreshing;
+        }
+
+        @Override
+        public int getWidth() {
+            return PuddingLayout.this.getWidth();
+        }
+
+        @Override
+        public int checkChildrenScroll(float x, float y, int directions) {
+            final int scroll = PuddingLayout.this.checkChildrenScroll(x, y, directions);
+            if (mGestureTrace != null) {
+                mGestureTrace.record(GestureTrace.TYPE_SCROLL, directions, scroll, x, y, 0);
+            }
+            return scroll;
+        }
+
+        @Override
+        public boolean isNestedScrolling(int direction) {
+            return PuddingLayout.this.isNestedScrolling(
+                    (direction & (SCROLL_UP | SCROLL_DOWN)) != 0 ?
+                            ViewCompat.SCROLL_AXIS_VERTICAL : ViewCompat.SCROLL_AXIS_HORIZONTAL);
+        }
+
+        @Override
+        public int interruptSpinner() {
+            return PuddingLayout.this.interruptSpinner();
+        }
+
+        @Override
+        public boolean prepareSpinner(int direction, boolean takeover) {
+            return PuddingLayout.this.prepareSpinner(direction, takeover);
+        }
+
+        @Override
+        public float calculateTakeoverDistance() {
+            return PuddingLayout.this.calculateTakeoverDistance();
+        }
+
+        @Override
+        public void moveSpinner(float overscroll) {
+            requestMoveSpinner(overscroll);
         }
 
-        return mIsBeingDragged;
+        @Override
+        public void triggerSpinner() {
+            setRefreshing(true, true /* notify */);
+        }
+
+        @Override
+        public void cancelSpinner() {
+            PuddingLayout.this.cancelSpinner();
+        }
+
+        @Override
+        public void requestDisallowInterceptTouchEvent() {
+            PuddingLayout.this.requestDisallowInterceptTouchEvent(true);
+        }
     }
 
 //    private void onActionDown(MotionEvent ev) {
@@ -852,6 +1512,14 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
 //                && (mCanScrollUp || mCanScrollDown || mCanScrollLeft || mCanScrollRight);
 //    }
 
+    @Override
+    public void requestDisallowInterceptTouchEvent(boolean b) {
+        if (b) {
+            mGesture.onDisallowIntercept();
+        }
+        super.requestDisallowInterceptTouchEvent(b);
+    }
+
     /* removed nested scroll support */
 //    @Override
 //    public void requestDisallowInterceptTouchEvent(boolean b) {
@@ -866,181 +1534,257 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
 //        }
 //    }
 
-//    // NestedScrollingParent
-//
-//    @Override
-//    public boolean onStartNestedScroll(View child, View target, int nestedScrollAxes) {
-//        return isEnabled() && !mReturningToStart && !mRefreshing
-//                && (nestedScrollAxes & ViewCompat.SCROLL_AXIS_VERTICAL) != 0;
-//    }
-//
-//    @Override
-//    public void onNestedScrollAccepted(View child, View target, int axes) {
-//        // Reset the counter of how much leftover scroll needs to be consumed.
-//        mNestedScrollingParentHelper.onNestedScrollAccepted(child, target, axes);
-//        // Dispatch up to the nested parent
-//        startNestedScroll(axes & ViewCompat.SCROLL_AXIS_VERTICAL);
-//        mTotalUnconsumed = 0;
-//        mNestedScrollInProgress = true;
-//    }
-//
-//    @Override
-//    public void onNestedPreScroll(View target, int dx, int dy, int[] consumed) {
-//        // If we are in the middle of consuming, a scroll, then we want to move the spinner back up
-//        // before allowing the list to scroll
-//        if (dy > 0 && mTotalUnconsumed > 0) {
-//            if (dy > mTotalUnconsumed) {
-//                consumed[1] = dy - (int) mTotalUnconsumed;
-//                mTotalUnconsumed = 0;
-//            } else {
-//                mTotalUnconsumed -= dy;
-//                consumed[1] = dy;
-//
-//            }
-//            moveSpinner(mTotalUnconsumed);
-//        }
-//
-//        // If a client layout is using a custom start position for the circle
-//        // view, they mean to hide it again before scrolling the child view
-//        // If we get back to mTotalUnconsumed == 0 and there is more to go, hide
-//        // the circle so it isn't exposed if its blocking content is moved
-//        if (mUsingCustomStart && dy > 0 && mTotalUnconsumed == 0
-//                && Math.abs(dy - consumed[1]) > 0) {
-//            mCircleView.setVisibility(View.GONE);
-//        }
-//
-//        // Now let our nested parent consume the leftovers
-//        final int[] parentConsumed = mParentScrollConsumed;
-//        if (dispatchNestedPreScroll(dx - consumed[0], dy - consumed[1], parentConsumed, null)) {
-//            consumed[0] += parentConsumed[0];
-//            consumed[1] += parentConsumed[1];
-//        }
-//    }
-//
-//    @Override
-//    public int getNestedScrollAxes() {
-//        return mNestedScrollingParentHelper.getNestedScrollAxes();
-//    }
-//
-//    @Override
-//    public void onStopNestedScroll(View target) {
-//        mNestedScrollingParentHelper.onStopNestedScroll(target);
-//        mNestedScrollInProgress = false;
-//        // Finish the spinner for nested scrolling if we ever consumed any
-//        // unconsumed nested scroll
-//        if (mTotalUnconsumed > 0) {
-//            finishSpinner(mTotalUnconsumed);
-//            mTotalUnconsumed = 0;
-//        }
-//        // Dispatch up our nested parent
-//        stopNestedScroll();
-//    }
-//
-//    @Override
-//    public void onNestedScroll(final View target, final int dxConsumed, final int dyConsumed,
-//                               final int dxUnconsumed, final int dyUnconsumed) {
-//        // Dispatch up to the nested parent first
-//        dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed,
-//                mParentOffsetInWindow);
-//
-//        // This is a bit of a hack. Nested scrolling works from the bottom up, and as we are
-//        // sometimes between two nested scrolling views, we need a way to be able to know when any
-//        // nested scrolling parent has stopped handling events. We do that by using the
-//        // 'offset in window 'functionality to see if we have been moved from the event.
-//        // This is a decent indication of whether we should take over the event stream or not.
-//        final int dy = dyUnconsumed + mParentOffsetInWindow[1];
-//        if (dy < 0) {
-//            mTotalUnconsumed += Math.abs(dy);
-//            moveSpinner(mTotalUnconsumed);
-//        }
-//    }
-//
-//    // NestedScrollingChild
-//
-//    @Override
-//    public void setNestedScrollingEnabled(boolean enabled) {
-//        mNestedScrollingChildHelper.setNestedScrollingEnabled(enabled);
-//    }
-//
-//    @Override
-//    public boolean isNestedScrollingEnabled() {
-//        return mNestedScrollingChildHelper.isNestedScrollingEnabled();
-//    }
-//
-//    @Override
-//    public boolean startNestedScroll(int axes) {
-//        return mNestedScrollingChildHelper.startNestedScroll(axes);
-//    }
-//
-//    @Override
-//    public void stopNestedScroll() {
-//        mNestedScrollingChildHelper.stopNestedScroll();
-//    }
-//
-//    @Override
-//    public boolean hasNestedScrollingParent() {
-//        return mNestedScrollingChildHelper.hasNestedScrollingParent();
-//    }
-//
-//    @Override
-//    public boolean dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed,
-//                                        int dyUnconsumed, int[] offsetInWindow) {
-//        return mNestedScrollingChildHelper.dispatchNestedScroll(dxConsumed, dyConsumed,
-//                dxUnconsumed, dyUnconsumed, offsetInWindow);
-//    }
-//
-//    @Override
-//    public boolean dispatchNestedPreScroll(int dx, int dy, int[] consumed, int[] offsetInWindow) {
-//        return mNestedScrollingChildHelper.dispatchNestedPreScroll(dx, dy, consumed, offsetInWindow);
-//    }
-//
-//    @Override
-//    public boolean onNestedPreFling(View target, float velocityX,
-//                                    float velocityY) {
-//        return dispatchNestedPreFling(velocityX, velocityY);
-//    }
-//
-//    @Override
-//    public boolean onNestedFling(View target, float velocityX, float velocityY,
-//                                 boolean consumed) {
-//        return dispatchNestedFling(velocityX, velocityY, consumed);
-//    }
-//
-//    @Override
-//    public boolean dispatchNestedFling(float velocityX, float velocityY, boolean consumed) {
-//        return mNestedScrollingChildHelper.dispatchNestedFling(velocityX, velocityY, consumed);
-//    }
-//
-//    @Override
-//    public boolean dispatchNestedPreFling(float velocityX, float velocityY) {
-//        return mNestedScrollingChildHelper.dispatchNestedPreFling(velocityX, velocityY);
-//    }
+    // NestedScrollingParent
+
+    @Override
+    public boolean onStartNestedScroll(View child, View target, int nestedScrollAxes) {
+        return mUseNestedScroll && isEnabled() && !mGesture.isReturningToStart() && !mRefreshing
+                && !mGesture.isBeingDragged()
+                && (nestedScrollAxes & (ViewCompat.SCROLL_AXIS_VERTICAL
+                | ViewCompat.SCROLL_AXIS_HORIZONTAL)) != 0;
+    }
+
+    @Override
+    public void onNestedScrollAccepted(View child, View target, int axes) {
+        // Reset the counter of how much leftover scroll needs to be consumed.
+        mNestedScrollingParentHelper.onNestedScrollAccepted(child, target, axes);
+        // Dispatch up to the nested parent
+        startNestedScroll(axes);
+        mTotalUnconsumed = 0;
+        mNestedScrollInProgress = true;
+        mNestedScrollAxes = axes;
+        mNestedScrollConsumed = false;
+        // mDirection is left alone, a takeover by the intercept path may keep
+        // the direction returned by interruptSpinner()
+        mNestedSpinner = false;
+    }
+
+    @Override
+    public void onNestedPreScroll(View target, int dx, int dy, int[] consumed) {
+        // If we are in the middle of consuming, a scroll, then we want to move the spinner back
+        // before allowing the child to scroll
+        if (mTotalUnconsumed > 0) {
+            final int delta;
+            final int axis;
+            switch (mDirection) {
+                case DIRECTION_TOP:
+                    delta = dy;
+                    axis = 1;
+                    break;
+                case DIRECTION_BOTTOM:
+                    delta = -dy;
+                    axis = 1;
+                    break;
+                case DIRECTION_LEFT:
+                    delta = dx;
+                    axis = 0;
+                    break;
+                case DIRECTION_RIGHT:
+                    delta = -dx;
+                    axis = 0;
+                    break;
+                default:
+                    delta = 0;
+                    axis = 0;
+                    break;
+            }
+            if (delta > 0) {
+                final int sign = (axis == 1 ? dy : dx) > 0 ? 1 : -1;
+                if (delta > mTotalUnconsumed) {
+                    consumed[axis] = sign * (delta - (int) mTotalUnconsumed);
+                    mTotalUnconsumed = 0;
+                } else {
+                    mTotalUnconsumed -= delta;
+                    consumed[axis] = sign * delta;
+                }
+                moveSpinner(mTotalUnconsumed * DRAG_RATE);
+            }
+        }
+
+        // Now let our nested parent consume the leftovers
+        final int[] parentConsumed = mParentScrollConsumed;
+        if (dispatchNestedPreScroll(dx - consumed[0], dy - consumed[1], parentConsumed, null)) {
+            consumed[0] += parentConsumed[0];
+            consumed[1] += parentConsumed[1];
+        }
+    }
+
+    @Override
+    public int getNestedScrollAxes() {
+        return mNestedScrollingParentHelper.getNestedScrollAxes();
+    }
+
+    @Override
+    public void onStopNestedScroll(View target) {
+        mNestedScrollingParentHelper.onStopNestedScroll(target);
+        mNestedScrollInProgress = false;
+        mNestedScrollAxes = 0;
+        // Finish the spinner for nested scrolling if we ever consumed any
+        // unconsumed nested scroll. A spinner of the intercept path is left to
+        // it, as the child stops when the layout intercepts.
+        if (mNestedSpinner) {
+            if (mTotalUnconsumed > 0) {
+                finishSpinner(mTotalUnconsumed * DRAG_RATE);
+            } else {
+                cancelSpinner();
+            }
+            mNestedSpinner = false;
+        }
+        mTotalUnconsumed = 0;
+        // Dispatch up our nested parent
+        stopNestedScroll();
+    }
+
+    @Override
+    public void onNestedScroll(final View target, final int dxConsumed, final int dyConsumed,
+                               final int dxUnconsumed, final int dyUnconsumed) {
+        // Dispatch up to the nested parent first
+        dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed,
+                mParentOffsetInWindow);
+
+        // As the intercept path does, start only when the child is already at
+        // its edge. A gesture that scrolled the child never triggers an action.
+        if (dxConsumed != 0 || dyConsumed != 0) {
+            mNestedScrollConsumed = true;
+        }
+
+        // This is a bit of a hack. Nested scrolling works from the bottom up, and as we are
+        // sometimes between two nested scrolling views, we need a way to be able to know when any
+        // nested scrolling parent has stopped handling events. We do that by using the
+        // 'offset in window 'functionality to see if we have been moved from the event.
+        // This is a decent indication of whether we should take over the event stream or not.
+        final int dx = dxUnconsumed + mParentOffsetInWindow[0];
+        final int dy = dyUnconsumed + mParentOffsetInWindow[1];
+        if (!mNestedSpinner) {
+            if (mNestedScrollConsumed || mGesture.isReturningToStart() || mRefreshing
+                    || mGesture.isBeingDragged()) {
+                return;
+            }
+            final boolean vertical = (mNestedScrollAxes & ViewCompat.SCROLL_AXIS_VERTICAL) != 0;
+            final boolean horizontal = (mNestedScrollAxes & ViewCompat.SCROLL_AXIS_HORIZONTAL) != 0;
+            // give priority to vertical swipe
+            if (!((vertical && dy < 0 && prepareSpinner(DIRECTION_TOP, false))
+                    || (vertical && dy > 0 && prepareSpinner(DIRECTION_BOTTOM, false))
+                    || (horizontal && dx < 0 && prepareSpinner(DIRECTION_LEFT, false))
+                    || (horizontal && dx > 0 && prepareSpinner(DIRECTION_RIGHT, false)))) {
+                return;
+            }
+            mNestedSpinner = true;
+        }
+        final int delta;
+        switch (mDirection) {
+            case DIRECTION_TOP:
+                delta = -dy;
+                break;
+            case DIRECTION_BOTTOM:
+                delta = dy;
+                break;
+            case DIRECTION_LEFT:
+                delta = -dx;
+                break;
+            case DIRECTION_RIGHT:
+                delta = dx;
+                break;
+            default:
+                delta = 0;
+                break;
+        }
+        if (delta > 0) {
+            mTotalUnconsumed += delta;
+            moveSpinner(mTotalUnconsumed * DRAG_RATE);
+        }
+    }
+
+    // NestedScrollingChild
+
+    @Override
+    public void setNestedScrollingEnabled(boolean enabled) {
+        mNestedScrollingChildHelper.setNestedScrollingEnabled(enabled);
+    }
+
+    @Override
+    public boolean isNestedScrollingEnabled() {
+        return mNestedScrollingChildHelper.isNestedScrollingEnabled();
+    }
+
+    @Override
+    public boolean startNestedScroll(int axes) {
+        return mNestedScrollingChildHelper.startNestedScroll(axes);
+    }
+
+    @Override
+    public void stopNestedScroll() {
+        mNestedScrollingChildHelper.stopNestedScroll();
+    }
+
+    @Override
+    public boolean hasNestedScrollingParent() {
+        return mNestedScrollingChildHelper.hasNestedScrollingParent();
+    }
+
+    @Override
+    public boolean dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed,
+                                        int dyUnconsumed, int[] offsetInWindow) {
+        return mNestedScrollingChildHelper.dispatchNestedScroll(dxConsumed, dyConsumed,
+                dxUnconsumed, dyUnconsumed, offsetInWindow);
+    }
+
+    @Override
+    public boolean dispatchNestedPreScroll(int dx, int dy, int[] consumed, int[] offsetInWindow) {
+        return mNestedScrollingChildHelper.dispatchNestedPreScroll(dx, dy, consumed, offsetInWindow);
+    }
+
+    @Override
+    public boolean onNestedPreFling(View target, float velocityX,
+                                    float velocityY) {
+        return dispatchNestedPreFling(velocityX, velocityY);
+    }
+
+    @Override
+    public boolean onNestedFling(View target, float velocityX, float velocityY,
+                                 boolean consumed) {
+        return dispatchNestedFling(velocityX, velocityY, consumed);
+    }
+
+    @Override
+    public boolean dispatchNestedFling(float velocityX, float velocityY, boolean consumed) {
+        return mNestedScrollingChildHelper.dispatchNestedFling(velocityX, velocityY, consumed);
+    }
+
+    @Override
+    public boolean dispatchNestedPreFling(float velocityX, float velocityY) {
+        return mNestedScrollingChildHelper.dispatchNestedPreFling(velocityX, velocityY);
+    }
+
+    /**
+     * Inverse of {@link #moveSpinner(float)} up to the trigger distance.
+     *
+     * @return Distance of a drag that puts the spinner at the current offset.
+     */
+    private float calculateTakeoverDistance() {
+        final float moved = Math.max(0, Math.min(mCurrentTargetOffset - mOriginalOffset,
+                mSpinnerFinalOffset));
+        final float overscroll = mSpinnerFinalOffset > 0 ?
+                moved / mSpinnerFinalOffset * mTotalDragDistance : 0;
+        return overscroll / DRAG_RATE;
+    }
 
     private void moveSpinner(float overscroll) {
         overscroll = Math.abs(overscroll);
         float originalDragPercent = overscroll / mTotalDragDistance;
 
-        float dragPercent = Math.min(1f, Math.abs(originalDragPercent));
-        float adjustedPercent = (float) Math.max(dragPercent - .4, 0) * 5 / 3;
-        float extraOS = Math.abs(overscroll) - mTotalDragDistance;
         /* remove custom starting position */
 //        float slingshotDist = mUsingCustomStart ? mSpinnerFinalOffset - mOriginalOffset
 //                : mSpinnerFinalOffset;
-        float slingshotDist = mSpinnerFinalOffset;
-        float tensionSlingshotPercent = Math.max(0, Math.min(extraOS, slingshotDist * 2)
-                / slingshotDist);
-        float tensionPercent = (float) ((tensionSlingshotPercent / 4) - Math.pow(
-                (tensionSlingshotPercent / 4), 2)) * 2f;
-        float extraMove = (slingshotDist) * tensionPercent * 2;
-
-        int targetY = mOriginalOffset + (int) ((slingshotDist * dragPercent) + extraMove);
+        int targetY = mOriginalOffset + (int) mTensionCurve.offset(overscroll);
         // where 1.0f is a full circle
         if (mCircleView.getVisibility() != View.VISIBLE) {
-            mCircleView.setVisibility(View.VISIBLE);
+            setCircleVisibility(View.VISIBLE);
         }
         if (!mScale) {
             ViewCompat.setScaleX(mCircleView, 1f);
             ViewCompat.setScaleY(mCircleView, 1f);
+            invalidateOverlay();
         }
         if (overscroll < mTotalDragDistance) {
             if (mScale) {
@@ -1064,209 +1808,75 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     private void cancelSpinner() {
         // cancel refresh
         mRefreshing = false;
-        AnimationListener listener = null;
-        if (!mScale) {
-            listener = new AnimationListener() {
-
-                @Override
-                public void onAnimationStart(Animation animation) {
-                }
-
-                @Override
-                public void onAnimationEnd(Animation animation) {
-                    if (!mScale) {
-                        startScaleDownAnimation(null);
-                    }
-                }
-
-                @Override
-                public void onAnimationRepeat(Animation animation) {
-                }
-
-            };
-        }
-        animateOffsetToStartPosition(mCurrentTargetOffset, listener);
+        animateOffsetToStartPosition(mCurrentTargetOffset,
+                mScale ? ON_END_KEEP : ON_END_SCALE_DOWN);
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
         final int action = MotionEventCompat.getActionMasked(ev);
-
-        if (mReturningToStart && action == MotionEvent.ACTION_DOWN) {
-            mReturningToStart = false;
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            // the spinner is finished from the latest position
+            flushPendingMove();
         }
+        return dispatchGesture(ev, action, false);
+    }
 
-        if (!isEnabled() || mReturningToStart) {
-        /* removed nested scroll support */
-//                || mNestedScrollInProgress) {
-            // Fail fast if we're not in a state where a swipe is possible
-            return false;
+    /**
+     * Move the spinner at the next frame, or now if moves are not coalesced.
+     * Only the latest overscroll in a frame is applied.
+     */
+    private void requestMoveSpinner(float overscroll) {
+        if (!mCoalesceMoves) {
+            moveSpinner(overscroll);
+            return;
         }
-
-        switch (action) {
-            case MotionEvent.ACTION_DOWN:
-//                onActionDown(ev);
-                break;
-
-            case MotionEvent.ACTION_MOVE: {
-                if (!mIntercept) {
-                    return false;
-                }
-
-                int pointerIndex = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
-                if (pointerIndex < 0) {
-                    Log.e(LOG_TAG, "Got ACTION_MOVE event but have an invalid active pointer id.");
-                    return false;
-                }
-
-                if (mIsBeingDragged) {
-                    final float x = MotionEventCompat.getX(ev, pointerIndex);
-                    final float y = MotionEventCompat.getY(ev, pointerIndex);
-                    final float overscrollLeft = (x - mInitialMotionX) * DRAG_RATE;
-                    final float overscrollTop = (y - mInitialMotionY) * DRAG_RATE;
-                    switch (mDirection) {
-                        case DIRECTION_TOP:
-                            if (overscrollTop > 0) {
-                                moveSpinner(overscrollTop);
-                            } else {
-                                return false;
-                            }
-                            break;
-                        case DIRECTION_BOTTOM:
-                            if (overscrollTop < 0) {
-                                moveSpinner(overscrollTop);
-                            } else {
-                                return false;
-                            }
-                            break;
-                        case DIRECTION_LEFT:
-                            if (overscrollLeft > 0) {
-                                moveSpinner(overscrollLeft);
-                            } else {
-                                return false;
-                            }
-                            break;
-                        case DIRECTION_RIGHT:
-                            if (overscrollLeft < 0) {
-                                moveSpinner(overscrollLeft);
-                            } else {
-                                return false;
-                            }
-                            break;
-                    }
-                }
-                break;
-            }
-            case MotionEventCompat.ACTION_POINTER_DOWN: {
-                if (!mIsBeingDragged && mCancelByMultiTouch) {
-                    mReturningToStart = true;
-                    cancelSpinner();
-                    mActivePointerId = INVALID_POINTER;
-                } else {
-                    int pointerIndex = MotionEventCompat.getActionIndex(ev);
-                    if (pointerIndex < 0) {
-                        Log.e(LOG_TAG, "Got ACTION_POINTER_DOWN event but have an invalid action index.");
-                        return false;
-                    }
-                    mActivePointerId = MotionEventCompat.getPointerId(ev, pointerIndex);
-                }
-                break;
-            }
-
-            case MotionEventCompat.ACTION_POINTER_UP:
-                onSecondaryPointerUp(ev);
-                break;
-
-            case MotionEvent.ACTION_UP: {
-                mIsBeingDragged = false;
-                if (!mIntercept) {
-                    cancelSpinner();
-                    mActivePointerId = INVALID_POINTER;
-                    return false;
-                }
-
-                int pointerIndex = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
-                if (pointerIndex < 0) {
-                    Log.e(LOG_TAG, "Got ACTION_UP event but don't have an active pointer id.");
-                    cancelSpinner();
-                    mActivePointerId = INVALID_POINTER;
-                    return false;
-                }
-
-                final float x = MotionEventCompat.getX(ev, pointerIndex);
-                final float y = MotionEventCompat.getY(ev, pointerIndex);
-                final float overscrollLeft = (x - mInitialMotionX) * DRAG_RATE;
-                final float overscrollTop = (y - mInitialMotionY) * DRAG_RATE;
-                switch (mDirection) {
-                    case DIRECTION_TOP:
-                    case DIRECTION_BOTTOM:
-                        finishSpinner(overscrollTop);
-                        break;
-                    case DIRECTION_LEFT:
-                    case DIRECTION_RIGHT:
-                        finishSpinner(overscrollLeft);
-                        break;
-                }
-                mActivePointerId = INVALID_POINTER;
-                return false;
-            }
-            case MotionEvent.ACTION_CANCEL:
-                mIsBeingDragged = false;
-                cancelSpinner();
-                mActivePointerId = INVALID_POINTER;
-                return false;
+        mPendingOverscroll = overscroll;
+        if (!mMovePending) {
+            mMovePending = true;
+            ViewCompat.postOnAnimation(this, mMoveRunnable);
         }
+    }
 
-        return true;
+    private void flushPendingMove() {
+        if (mMovePending) {
+            removeCallbacks(mMoveRunnable);
+            mMoveRunnable.run();
+        }
     }
 
-    private void animateOffsetToCorrectPosition(int from, AnimationListener listener) {
+    private void animateOffsetToCorrectPosition(int from, int onEnd) {
         mFrom = from;
-        mAnimateToCorrectPosition.reset();
-        mAnimateToCorrectPosition.setDuration(ANIMATE_TO_TRIGGER_DURATION);
-        mAnimateToCorrectPosition.setInterpolator(mDecelerateInterpolator);
-        if (listener != null) {
-            mCircleView.setAnimationListener(listener);
-        }
-        mCircleView.clearAnimation();
-        mCircleView.startAnimation(mAnimateToCorrectPosition);
+        mSpinnerAnimator.start(ANIMATION_TO_CORRECT_POSITION, ANIMATE_TO_TRIGGER_DURATION,
+                mDecelerateInterpolator, onEnd);
     }
 
-    private void animateOffsetToStartPosition(int from, AnimationListener listener) {
+    private void animateOffsetToStartPosition(int from, int onEnd) {
         if (mScale) {
             // Scale the item back down
-            startScaleDownReturnToStartAnimation(from, listener);
+            startScaleDownReturnToStartAnimation(from, onEnd);
         } else {
             mFrom = from;
-            mAnimateToStartPosition.reset();
-            mAnimateToStartPosition.setDuration(ANIMATE_TO_START_DURATION);
-            mAnimateToStartPosition.setInterpolator(mDecelerateInterpolator);
-            if (listener != null) {
-                mCircleView.setAnimationListener(listener);
-            }
-            mCircleView.clearAnimation();
-            mCircleView.startAnimation(mAnimateToStartPosition);
+            mSpinnerAnimator.start(ANIMATION_TO_START_POSITION, ANIMATE_TO_START_DURATION,
+                    mDecelerateInterpolator, onEnd);
         }
     }
 
-    private final Animation mAnimateToCorrectPosition = new Animation() {
-        @Override
-        public void applyTransformation(float interpolatedTime, Transformation t) {
-            int targetTop = 0;
-            int endTarget = 0;
-            /* remove custom starting position */
-//            if (!mUsingCustomStart) {
-//                endTarget = (int) (mSpinnerFinalOffset - Math.abs(mOriginalOffset));
-//            } else {
-//                endTarget = (int) mSpinnerFinalOffset;
-//            }
-            int offset = 0;
-            endTarget = (int) (mSpinnerFinalOffset - Math.abs(mOriginalOffset));
-            targetTop = (mFrom + (int) ((endTarget - mFrom) * interpolatedTime));
-            offset = targetTop - mTargetOffsetSetter.calculateCurrentOffset();
-            mTargetOffsetSetter.set(offset, false /* requires update */);
-        }
-    };
+    private void moveToCorrectPosition(float interpolatedTime) {
+        int targetTop = 0;
+        int endTarget = 0;
+        /* remove custom starting position */
+//        if (!mUsingCustomStart) {
+//            endTarget = (int) (mSpinnerFinalOffset - Math.abs(mOriginalOffset));
+//        } else {
+//            endTarget = (int) mSpinnerFinalOffset;
+//        }
+        int offset = 0;
+        endTarget = (int) (mSpinnerFinalOffset - Math.abs(mOriginalOffset));
+        targetTop = (mFrom + (int) ((endTarget - mFrom) * interpolatedTime));
+        offset = targetTop - mTargetOffsetSetter.calculateCurrentOffset();
+        mTargetOffsetSetter.set(offset, false /* requires update */);
+    }
 
     private void moveToStart(float interpolatedTime) {
         if (mTargetOffsetSetter != null) {
@@ -1278,42 +1888,117 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         }
     }
 
-    private final Animation mAnimateToStartPosition = new Animation() {
-        @Override
-        public void applyTransformation(float interpolatedTime, Transformation t) {
-            moveToStart(interpolatedTime);
-        }
-    };
-
-    private void startScaleDownReturnToStartAnimation(int from,
-                                                      AnimationListener listener) {
+    private void startScaleDownReturnToStartAnimation(int from, int onEnd) {
         mFrom = from;
         if (isAlphaUsedForScale()) {
             mStartingScale = 1f;
         } else {
             mStartingScale = ViewCompat.getScaleX(mCircleView);
         }
-        mScaleDownToStartAnimation = new Animation() {
-            @Override
-            public void applyTransformation(float interpolatedTime, Transformation t) {
-                float targetScale = (mStartingScale + (-mStartingScale * interpolatedTime));
-                setAnimationProgress(targetScale);
-                moveToStart(interpolatedTime);
+        mSpinnerAnimator.start(ANIMATION_SCALE_DOWN_TO_START, SCALE_DOWN_DURATION,
+                mAccelerateDecelerateInterpolator, onEnd);
+    }
+
+    /**
+     * Runs one animation of the spinner at a time on the animation frames of
+     * Choreographer. It is created once per layout and starting, stepping or
+     * cancelling an animation allocates nothing.
+     */
+    private final class SpinnerAnimator implements Runnable {
+        private int mAnimation = ANIMATION_NONE;
+        private int mOnEnd = ON_END_NONE;
+        private long mStartTime;
+        private int mDuration;
+        private Interpolator mInterpolator;
+
+        /**
+         * Start an animation in place of the running one, which ends without
+         * its end action.
+         *
+         * @param onEnd One of ON_END_XXX.
+         */
+        void start(int animation, int duration, Interpolator interpolator, int onEnd) {
+            cancel();
+            if (onEnd != ON_END_KEEP) {
+                mOnEnd = onEnd;
+            }
+            if (mCircleView == null || mCircleView.getVisibility() != View.VISIBLE) {
+                // nothing to animate while the spinner is hidden
+                return;
+            }
+            mAnimation = animation;
+            mDuration = duration;
+            mInterpolator = interpolator;
+            mStartTime = AnimationUtils.currentAnimationTimeMillis();
+            ViewCompat.postOnAnimation(PuddingLayout.this, this);
+        }
+
+        void cancel() {
+            if (mAnimation != ANIMATION_NONE) {
+                mAnimation = ANIMATION_NONE;
+                removeCallbacks(this);
+            }
+        }
+
+        boolean isRunning() {
+            return mAnimation != ANIMATION_NONE;
+        }
+
+        @Override
+        public void run() {
+            final int animation = mAnimation;
+            if (animation == ANIMATION_NONE) {
+                return;
+            }
+            final long elapsed = AnimationUtils.currentAnimationTimeMillis() - mStartTime;
+            final float normalized = mDuration > 0 ? Math.min(1f, (float) elapsed / mDuration) : 1f;
+            apply(animation, mInterpolator.getInterpolation(normalized));
+            if (mAnimation != animation) {
+                // restarted or cancelled while applied
+                return;
+            }
+            if (normalized < 1f) {
+                ViewCompat.postOnAnimation(PuddingLayout.this, this);
+            } else {
+                mAnimation = ANIMATION_NONE;
+                onSpinnerAnimationEnd(mOnEnd);
+            }
+        }
+
+        private void apply(int animation, float interpolatedTime) {
+            switch (animation) {
+                case ANIMATION_SCALE_UP:
+                    setAnimationProgress(interpolatedTime);
+                    break;
+                case ANIMATION_SCALE_DOWN:
+                    setAnimationProgress(1 - interpolatedTime);
+                    break;
+                case ANIMATION_TO_CORRECT_POSITION:
+                    moveToCorrectPosition(interpolatedTime);
+                    break;
+                case ANIMATION_TO_START_POSITION:
+                    moveToStart(interpolatedTime);
+                    break;
+                case ANIMATION_SCALE_DOWN_TO_START:
+                    float targetScale = (mStartingScale + (-mStartingScale * interpolatedTime));
+                    setAnimationProgress(targetScale);
+                    moveToStart(interpolatedTime);
+                    break;
             }
-        };
-        mScaleDownToStartAnimation.setDuration(SCALE_DOWN_DURATION);
-        if (listener != null) {
-            mCircleView.setAnimationListener(listener);
         }
-        mCircleView.clearAnimation();
-        mCircleView.startAnimation(mScaleDownToStartAnimation);
     }
 
     private abstract class TargetOffsetSetter {
         void set(int offset, boolean requiresUpdate) {
-            mCircleView.bringToFront();
+            if (!mMoveByTranslation) {
+                mCircleView.bringToFront();
+            }
             setImpl(offset);
             mCurrentTargetOffset = calculateCurrentOffset();
+            if (mOffsetTrace != null) {
+                mOffsetTrace.record(System.nanoTime(), mDirection, offset, mCurrentTargetOffset);
+            }
+            invalidateOverlay();
             if (requiresUpdate && android.os.Build.VERSION.SDK_INT < 11) {
                 invalidate();
             }
@@ -1332,69 +2017,75 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
     private final TargetOffsetSetter mTargetOffsetTopSetter = new TargetOffsetSetter() {
         @Override
         void setImpl(int offset) {
-            Log.d(LOG_TAG, "top = " + offset);
-            mCircleView.offsetTopAndBottom(offset);
+            if (mMoveByTranslation) {
+                ViewCompat.setTranslationY(mCircleView,
+                        ViewCompat.getTranslationY(mCircleView) + offset);
+            } else {
+                mCircleView.offsetTopAndBottom(offset);
+            }
         }
 
         @Override
         int calculateCurrentOffset() {
-            return mCircleView.getTop();
+            // the translation is always 0 unless moved by translation
+            return mCircleView.getTop() + (int) ViewCompat.getTranslationY(mCircleView);
         }
     };
 
     private final TargetOffsetSetter mTargetOffsetBottomSetter = new TargetOffsetSetter() {
         @Override
         void setImpl(int offset) {
-            Log.d(LOG_TAG, "bottom = " + offset);
-            mCircleView.offsetTopAndBottom(-offset);
+            if (mMoveByTranslation) {
+                ViewCompat.setTranslationY(mCircleView,
+                        ViewCompat.getTranslationY(mCircleView) - offset);
+            } else {
+                mCircleView.offsetTopAndBottom(-offset);
+            }
         }
 
         @Override
         int calculateCurrentOffset() {
-            return getHeight() - mCircleView.getBottom();
+            // the translation is always 0 unless moved by translation
+            return getHeight() - (mCircleView.getBottom() + (int) ViewCompat.getTranslationY(mCircleView));
         }
     };
 
     private final TargetOffsetSetter mTargetOffsetLeftSetter = new TargetOffsetSetter() {
         @Override
         void setImpl(int offset) {
-            Log.d(LOG_TAG, "left = " + offset);
-            mCircleView.offsetLeftAndRight(offset);
+            if (mMoveByTranslation) {
+                ViewCompat.setTranslationX(mCircleView,
+                        ViewCompat.getTranslationX(mCircleView) + offset);
+            } else {
+                mCircleView.offsetLeftAndRight(offset);
+            }
         }
 
         @Override
         int calculateCurrentOffset() {
-            return mCircleView.getLeft();
+            // the translation is always 0 unless moved by translation
+            return mCircleView.getLeft() + (int) ViewCompat.getTranslationX(mCircleView);
         }
     };
 
     private final TargetOffsetSetter mTargetOffsetRightSetter = new TargetOffsetSetter() {
         @Override
         void setImpl(int offset) {
-            Log.d(LOG_TAG, "right = " + offset);
-            mCircleView.offsetLeftAndRight(-offset);
+            if (mMoveByTranslation) {
+                ViewCompat.setTranslationX(mCircleView,
+                        ViewCompat.getTranslationX(mCircleView) - offset);
+            } else {
+                mCircleView.offsetLeftAndRight(-offset);
+            }
         }
 
         @Override
         int calculateCurrentOffset() {
-            return getWidth() - mCircleView.getRight();
+            // the translation is always 0 unless moved by translation
+            return getWidth() - (mCircleView.getRight() + (int) ViewCompat.getTranslationX(mCircleView));
         }
     };
 
-    private void onSecondaryPointerUp(MotionEvent ev) {
-        if (!mIsBeingDragged && mCancelByMultiTouch) {
-            return;
-        }
-        final int pointerIndex = MotionEventCompat.getActionIndex(ev);
-        final int pointerId = MotionEventCompat.getPointerId(ev, pointerIndex);
-        if (pointerId == mActivePointerId) {
-            // This was our active pointer going up. Choose a new
-            // active pointer and adjust accordingly.
-            final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
-            mActivePointerId = MotionEventCompat.getPointerId(ev, newPointerIndex);
-        }
-    }
-
     /**
      * Classes that wish to be notified when the swipe gesture correctly
      * triggers a refresh should implement this interface.
@@ -1409,7 +2100,22 @@ public class PuddingLayout extends ViewGroup implements NestedScrollingParent,
         void onOverscrollRight();
     }
 
+    /**
+     * Supplies the drawable of a direction when it is used for the first
+     * time. Return null for a direction without an action.
+     */
+    public interface DrawableSupplier {
+        Drawable getTopDrawable();
+
+        Drawable getBottomDrawable();
+
+        Drawable getLeftDrawable();
+
+        Drawable getRightDrawable();
+    }
+
     public void performHapticFeedback() {
-        mCircleView.performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
+        // the spinner may not be attached to the window
+        performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
     }
 }
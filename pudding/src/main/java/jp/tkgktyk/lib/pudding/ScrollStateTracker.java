@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+import android.support.v4.view.ScrollingView;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+import android.webkit.WebView;
+import android.widget.AbsListView;
+import android.widget.HorizontalScrollView;
+import android.widget.ScrollView;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the scrollable directions of the scrollable descendants of a layout
+ * so that ACTION_DOWN can answer them without walking the hierarchy.
+ * <p>
+ * The index mirrors the view groups of the hierarchy, each with a signature of
+ * its children: their identities, visibilities and sizes. After the hierarchy
+ * is laid out again, the next query compares the signatures and collects
+ * again only the groups whose children have changed, and their states are
+ * refreshed after something scrolls. Both are observed through the
+ * ViewTreeObserver because OnHierarchyChangeListener and
+ * OnScrollChangeListener hold only one listener per view, which belongs to
+ * the application. Views whose scrolling is not known to be reported are
+ * queried directly each time they are hit.
+ * </p>
+ * <p>
+ * Every view group is indexed, as a group may become scrollable without
+ * any change of its own children, like a pager given more pages. Other views
+ * are indexed if they can scroll when their parent is collected. A view
+ * matches a point only inside all of its ancestors, like the walk of
+ * {@link PuddingLayout#probeChildrenScroll(float, float, int)}.
+ * </p>
+ * <p>
+ * The spinner of the host is never indexed, and its changes are not part of
+ * the signature of the host.
+ * </p>
+ */
+class ScrollStateTracker implements ViewTreeObserver.OnGlobalLayoutListener,
+        ViewTreeObserver.OnScrollChangedListener {
+    /**
+     * Returned by {@link #query} when the tracker cannot answer and the caller
+     * has to walk the hierarchy.
+     */
+    static final int UNKNOWN = -1;
+
+    /**
+     * A view group of the hierarchy and the scrollable views among its
+     * children.
+     */
+    private static class Node {
+        final ViewGroup group;
+        int signature;
+        final ArrayList<View> views = new ArrayList<>();
+        final ArrayList<Node> children = new ArrayList<>();
+
+        Node(ViewGroup group) {
+            this.group = group;
+        }
+    }
+
+    private final ViewGroup mHost;
+    private final int mAllDirections;
+
+    private Node mRoot;
+    private final ArrayList<View> mViews = new ArrayList<>();
+    private int[] mFlags = new int[4];
+    private boolean[] mObservable = new boolean[4];
+    // left, top, right and bottom in the host coordinates
+    private int[] mBounds = new int[16];
+
+    private ViewTreeObserver mObserver;
+    private boolean mLayoutChanged;
+    private boolean mStateValid;
+
+    /**
+     * @param host          The layout whose descendants are tracked.
+     * @param allDirections Mask of every direction passed to {@link #query}.
+     */
+    ScrollStateTracker(ViewGroup host, int allDirections) {
+        mHost = host;
+        mAllDirections = allDirections;
+    }
+
+    void attach() {
+        if (mObserver != null) {
+            return;
+        }
+        mObserver = mHost.getViewTreeObserver();
+        mObserver.addOnGlobalLayoutListener(this);
+        mObserver.addOnScrollChangedListener(this);
+    }
+
+    @SuppressWarnings("deprecation")
+    void detach() {
+        if (mObserver == null) {
+            return;
+        }
+        if (mObserver.isAlive()) {
+            mObserver.removeGlobalOnLayoutListener(this);
+            mObserver.removeOnScrollChangedListener(this);
+        }
+        mObserver = null;
+        // don't keep the views of a detached window
+        mRoot = null;
+        mViews.clear();
+    }
+
+    @Override
+    public void onGlobalLayout() {
+        mLayoutChanged = true;
+        mStateValid = false;
+    }
+
+    @Override
+    public void onScrollChanged() {
+        mStateValid = false;
+    }
+
+    /**
+     * @param x          X in the host coordinates.
+     * @param y          Y in the host coordinates.
+     * @param directions Mask of the directions to check.
+     * @return Mask of the directions that the descendants under the point can
+     * scroll to, or {@link #UNKNOWN}.
+     */
+    int query(float x, float y, int directions) {
+        if (mObserver == null) {
+            return UNKNOWN;
+        }
+        if (mRoot == null) {
+            mRoot = new Node(mHost);
+            collect(mRoot);
+            index();
+        } else if (mLayoutChanged) {
+            update(mRoot);
+            index();
+        }
+        mLayoutChanged = false;
+        if (!mStateValid && !refresh()) {
+            return UNKNOWN;
+        }
+        int found = 0;
+        final int count = mViews.size();
+        for (int i = 0; i < count && found != directions; ++i) {
+            final int b = i * 4;
+            if (x < mBounds[b] || y < mBounds[b + 1] || x >= mBounds[b + 2] || y >= mBounds[b + 3]) {
+                continue;
+            }
+            final View view = mViews.get(i);
+            if (!view.isShown()) {
+                continue;
+            }
+            if (mObservable[i]) {
+                found |= mFlags[i] & directions;
+            } else {
+                found |= PuddingLayout.scrollableDirections(view, directions & ~found);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The number of indexed views, for tests.
+     */
+    int size() {
+        return mViews.size();
+    }
+
+    /**
+     * Collect again the groups whose children have changed since they were
+     * collected.
+     */
+    private void update(Node node) {
+        if (signature(node.group) != node.signature) {
+            collect(node);
+            return;
+        }
+        final int count = node.children.size();
+        for (int i = 0; i < count; ++i) {
+            update(node.children.get(i));
+        }
+    }
+
+    private void collect(Node node) {
+        node.views.clear();
+        node.children.clear();
+        final ViewGroup parent = node.group;
+        final int count = parent.getChildCount();
+        for (int i = 0; i < count; ++i) {
+            final View child = parent.getChildAt(i);
+            if (child.getVisibility() != View.VISIBLE || isSpinner(parent, child)) {
+                continue;
+            }
+            if (child instanceof ViewGroup) {
+                final Node childNode = new Node((ViewGroup) child);
+                collect(childNode);
+                node.children.add(childNode);
+            } else if (isObservable(child)
+                    || PuddingLayout.scrollableDirections(child, mAllDirections) != 0) {
+                // other views come in when their size or the children of
+                // their parent change
+                node.views.add(child);
+            }
+        }
+        node.signature = signature(parent);
+    }
+
+    private int signature(ViewGroup parent) {
+        final int count = parent.getChildCount();
+        int signature = count;
+        for (int i = 0; i < count; ++i) {
+            final View child = parent.getChildAt(i);
+            if (isSpinner(parent, child)) {
+                continue;
+            }
+            signature = signature * 31 + System.identityHashCode(child);
+            signature = signature * 31 + child.getVisibility();
+            signature = signature * 31 + child.getWidth();
+            signature = signature * 31 + child.getHeight();
+        }
+        return signature;
+    }
+
+    private boolean isSpinner(ViewGroup parent, View child) {
+        return parent == mHost && child instanceof CircleImageView;
+    }
+
+    /**
+     * Flatten the nodes into the arrays of the queries.
+     */
+    private void index() {
+        mViews.clear();
+        flatten(mRoot);
+        final int count = mViews.size();
+        if (mFlags.length < count) {
+            mFlags = new int[count];
+            mObservable = new boolean[count];
+            mBounds = new int[count * 4];
+        }
+        for (int i = 0; i < count; ++i) {
+            mObservable[i] = isObservable(mViews.get(i));
+        }
+        mStateValid = false;
+    }
+
+    private void flatten(Node node) {
+        mViews.addAll(node.views);
+        final int count = node.children.size();
+        for (int i = 0; i < count; ++i) {
+            final Node child = node.children.get(i);
+            mViews.add(child.group);
+            flatten(child);
+        }
+    }
+
+    private boolean refresh() {
+        final int count = mViews.size();
+        for (int i = 0; i < count; ++i) {
+            final View view = mViews.get(i);
+            if (!updateBounds(view, i * 4)) {
+                // removed but not laid out yet
+                mLayoutChanged = true;
+                return false;
+            }
+            if (mObservable[i]) {
+                mFlags[i] = PuddingLayout.scrollableDirections(view, mAllDirections);
+            }
+        }
+        mStateValid = true;
+        return true;
+    }
+
+    /**
+     * Put the part of the view inside all of its ancestors below the host in
+     * the host coordinates. It is empty if the view is out of any of them.
+     */
+    private boolean updateBounds(View view, int b) {
+        float left = 0;
+        float top = 0;
+        float right = view.getWidth();
+        float bottom = view.getHeight();
+        View current = view;
+        while (current != mHost) {
+            final float dx = current.getLeft() + ViewCompat.getTranslationX(current);
+            final float dy = current.getTop() + ViewCompat.getTranslationY(current);
+            final ViewParent parent = current.getParent();
+            if (!(parent instanceof View)) {
+                return false;
+            }
+            current = (View) parent;
+            left += dx - current.getScrollX();
+            top += dy - current.getScrollY();
+            right += dx - current.getScrollX();
+            bottom += dy - current.getScrollY();
+            if (current != mHost) {
+                left = Math.max(left, 0);
+                top = Math.max(top, 0);
+                right = Math.min(right, current.getWidth());
+                bottom = Math.min(bottom, current.getHeight());
+            }
+        }
+        mBounds[b] = (int) left;
+        mBounds[b + 1] = (int) top;
+        mBounds[b + 2] = (int) right;
+        mBounds[b + 3] = (int) bottom;
+        return true;
+    }
+
+    /**
+     * @return Whether the view reports its scrolling through
+     * ViewTreeObserver.OnScrollChangedListener.
+     */
+    private static boolean isObservable(View view) {
+        return view instanceof AbsListView
+                || view instanceof ScrollView
+                || view instanceof HorizontalScrollView
+                || view instanceof WebView
+                || view instanceof ScrollingView;
+    }
+}
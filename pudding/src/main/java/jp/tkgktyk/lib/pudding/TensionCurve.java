@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.pudding;
+
+/**
+ * Maps an overscroll to the distance the spinner moves from its start, as
+ * SwipeRefreshLayout does. The spinner follows the drag linearly up to the
+ * trigger distance and then slows down with a slingshot tension.
+ * <p>
+ * The tension of SwipeRefreshLayout is
+ * {@code s * 2 * 2 * (x / 4 - (x / 4)^2)} for {@code x = e / s}, where
+ * {@code s} is the slingshot distance and {@code e} is the overscroll beyond
+ * the trigger distance clamped to {@code [0, 2s]}. That is the quadratic
+ * {@code e - e^2 / 4s}, which is evaluated here with coefficients computed
+ * once per configuration.
+ * </p>
+ */
+class TensionCurve {
+    private float mTotalDragDistance;
+    private float mSlingshotDistance;
+    // slingshot distance per overscroll up to the trigger distance
+    private float mLinearRate;
+    private float mMaxExtra;
+    // 1 / 4s
+    private float mQuadraticRate;
+
+    /**
+     * @param totalDragDistance Overscroll to trigger.
+     * @param slingshotDistance Distance the spinner moves at the trigger.
+     */
+    void configure(float totalDragDistance, float slingshotDistance) {
+        mTotalDragDistance = totalDragDistance;
+        mSlingshotDistance = slingshotDistance;
+        mLinearRate = totalDragDistance > 0 ? slingshotDistance / totalDragDistance : 0;
+        mMaxExtra = Math.max(0, slingshotDistance * 2);
+        mQuadraticRate = slingshotDistance > 0 ? 1 / (4 * slingshotDistance) : 0;
+    }
+
+    /**
+     * @param overscroll Not negative.
+     * @return Distance of the spinner from its start.
+     */
+    float offset(float overscroll) {
+        if (overscroll <= mTotalDragDistance) {
+            return overscroll * mLinearRate;
+        }
+        final float extra = Math.min(overscroll - mTotalDragDistance, mMaxExtra);
+        return mSlingshotDistance + extra - extra * extra * mQuadraticRate;
+    }
+}
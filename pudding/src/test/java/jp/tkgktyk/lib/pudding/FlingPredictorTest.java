@@ -0,0 +1,195 @@
+package jp.tkgktyk.lib.pudding;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays synthetic drag traces through {@link FlingPredictor} and compares
+ * it with the trigger by distance only.
+ */
+public class FlingPredictorTest {
+    // 64dp / DRAG_RATE at xxhdpi in pixels
+    private static final float TARGET = 384;
+    // 800dp/s at xxhdpi
+    private static final float MIN_VELOCITY = 2400;
+    private static final int PROJECTION = 100;
+    // 120Hz touch samples
+    private static final long INTERVAL = 8;
+
+    private FlingPredictor mPredictor;
+
+    @Before
+    public void setUp() {
+        mPredictor = new FlingPredictor();
+        mPredictor.setThresholds(MIN_VELOCITY, PROJECTION);
+    }
+
+    /**
+     * Motion of a finger: the position at a time from the start of the drag.
+     */
+    private interface Motion {
+        float at(long time);
+    }
+
+    private static Motion constant(final float velocity) {
+        return new Motion() {
+            @Override
+            public float at(long time) {
+                return velocity * time / 1000;
+            }
+        };
+    }
+
+    /**
+     * Decelerates from the velocity and stops at the distance.
+     */
+    private static Motion stopping(final float velocity, final float distance) {
+        final float duration = 2 * distance / velocity * 1000;
+        return new Motion() {
+            @Override
+            public float at(long time) {
+                final float t = Math.min(time, duration) / duration;
+                return distance * (1 - (1 - t) * (1 - t));
+            }
+        };
+    }
+
+    /**
+     * Goes to the distance at the velocity and comes back at the same speed.
+     */
+    private static Motion reversing(final float velocity, final float distance) {
+        final float turn = distance / velocity * 1000;
+        return new Motion() {
+            @Override
+            public float at(long time) {
+                return time < turn ? velocity * time / 1000
+                        : distance - velocity * (time - turn) / 1000;
+            }
+        };
+    }
+
+    private static Motion mirrored(final Motion motion) {
+        return new Motion() {
+            @Override
+            public float at(long time) {
+                return -motion.at(time);
+            }
+        };
+    }
+
+    private void replay(Motion motion, long upTime) {
+        mPredictor.clear();
+        for (long t = 0; t < upTime; t += INTERVAL) {
+            mPredictor.add(t, motion.at(t));
+        }
+        mPredictor.add(upTime, motion.at(upTime));
+    }
+
+    private boolean triggersByDistance(Motion motion, long upTime) {
+        return Math.abs(motion.at(upTime)) >= TARGET;
+    }
+
+    private boolean triggersByPrediction(Motion motion, long upTime) {
+        replay(motion, upTime);
+        return triggersByDistance(motion, upTime) || mPredictor.predictsReach(TARGET);
+    }
+
+    /**
+     * @return The earliest release that triggers, or -1.
+     */
+    private long earliestTrigger(Motion motion, long limit, boolean prediction) {
+        for (long t = INTERVAL; t <= limit; t += INTERVAL) {
+            if (prediction ? triggersByPrediction(motion, t) : triggersByDistance(motion, t)) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void velocityOfConstantMotion() {
+        replay(constant(1500), 200);
+        assertEquals(1500, mPredictor.getVelocity(), 1);
+        replay(constant(-3000), 200);
+        assertEquals(-3000, mPredictor.getVelocity(), 1);
+    }
+
+    @Test
+    public void velocityOnlyFromRecentSamples() {
+        mPredictor.clear();
+        // fast at first, then held still for longer than the horizon
+        for (long t = 0; t <= 50; t += INTERVAL) {
+            mPredictor.add(t, 5000f * t / 1000);
+        }
+        final float held = 5000f * 48 / 1000;
+        for (long t = 56; t <= 56 + FlingPredictor.HORIZON_MILLIS; t += INTERVAL) {
+            mPredictor.add(t, held);
+        }
+        assertEquals(0, mPredictor.getVelocity(), 0.001);
+        assertFalse(mPredictor.predictsReach(TARGET));
+    }
+
+    @Test
+    public void disabledNeverPredicts() {
+        mPredictor.setThresholds(0, PROJECTION);
+        replay(constant(10000), 30);
+        assertFalse(mPredictor.predictsReach(TARGET));
+    }
+
+    @Test
+    public void replayTraces() {
+        // flicks released while moving, short of the target
+        final Motion[] intended = {
+                constant(2500), constant(3000), constant(4000), constant(5000),
+                mirrored(constant(3000)), mirrored(constant(4500)),
+        };
+        final long[] intendedUp = {120, 100, 80, 60, 100, 70};
+        // drags not meant to trigger
+        final Motion[] unintended = {
+                stopping(2000, 300), stopping(3000, 250), stopping(1500, 350),
+                constant(1000), constant(1800),
+                reversing(3000, 300), reversing(2000, 350),
+                mirrored(stopping(3000, 300)),
+                // quick short swipes
+                constant(3000), constant(6000),
+        };
+        final long[] unintendedUp = {400, 400, 600, 300, 180, 160, 250, 400, 40, 20};
+
+        int distanceHits = 0;
+        int predictionHits = 0;
+        for (int i = 0; i < intended.length; ++i) {
+            assertTrue(Math.abs(intended[i].at(intendedUp[i])) < TARGET);
+            distanceHits += triggersByDistance(intended[i], intendedUp[i]) ? 1 : 0;
+            predictionHits += triggersByPrediction(intended[i], intendedUp[i]) ? 1 : 0;
+        }
+        int distanceFalse = 0;
+        int predictionFalse = 0;
+        for (int i = 0; i < unintended.length; ++i) {
+            distanceFalse += triggersByDistance(unintended[i], unintendedUp[i]) ? 1 : 0;
+            predictionFalse += triggersByPrediction(unintended[i], unintendedUp[i]) ? 1 : 0;
+        }
+
+        // time saved when a flick does not have to be carried to the target
+        long saved = 0;
+        for (Motion motion : intended) {
+            final long byDistance = earliestTrigger(motion, 1000, false);
+            final long byPrediction = earliestTrigger(motion, 1000, true);
+            assertTrue(byPrediction > 0 && byPrediction <= byDistance);
+            saved += byDistance - byPrediction;
+        }
+
+        System.out.println("flicks triggered: distance " + distanceHits + "/" + intended.length
+                + ", prediction " + predictionHits + "/" + intended.length);
+        System.out.println("false triggers: distance " + distanceFalse + "/" + unintended.length
+                + ", prediction " + predictionFalse + "/" + unintended.length);
+        System.out.println("mean latency saved: " + saved / intended.length + "ms");
+
+        assertEquals(0, distanceHits);
+        assertEquals(intended.length, predictionHits);
+        assertEquals(0, distanceFalse);
+        assertEquals(0, predictionFalse);
+        assertTrue(saved > 0);
+    }
+}
@@ -0,0 +1,289 @@
+package jp.tkgktyk.lib.pudding;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static jp.tkgktyk.lib.pudding.GestureStateMachine.*;
+import static org.junit.Assert.*;
+
+/**
+ * Drives {@link GestureStateMachine} like a ViewGroup dispatches touch events,
+ * with children whose scrollable directions are given.
+ */
+public class GestureStateMachineTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int TOUCH_SLOP = 24;
+    private static final float TOTAL_DRAG_DISTANCE = 192;
+
+    /**
+     * Records what the machine asks to do. Scroll checks are counted apart
+     * because the lazy and the eager checks ask differently.
+     */
+    private static class FakeCallback implements Callback {
+        final List<String> log = new ArrayList<>();
+        int scrollable;
+        int spinnerless;
+        int scrollChecks;
+        boolean enabled = true;
+
+        @Override
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public boolean isRefreshing() {
+            return false;
+        }
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int checkChildrenScroll(float x, float y, int directions) {
+            ++scrollChecks;
+            return scrollable & directions;
+        }
+
+        @Override
+        public boolean isNestedScrolling(int direction) {
+            return false;
+        }
+
+        @Override
+        public int interruptSpinner() {
+            log.add("interrupt");
+            return 0;
+        }
+
+        @Override
+        public boolean prepareSpinner(int direction, boolean takeover) {
+            if ((spinnerless & (1 << direction)) != 0) {
+                return false;
+            }
+            log.add("prepare " + direction);
+            return true;
+        }
+
+        @Override
+        public float calculateTakeoverDistance() {
+            return 0;
+        }
+
+        @Override
+        public void moveSpinner(float overscroll) {
+            log.add("move " + overscroll);
+        }
+
+        @Override
+        public void triggerSpinner() {
+            log.add("trigger");
+        }
+
+        @Override
+        public void cancelSpinner() {
+            log.add("cancel");
+        }
+
+        @Override
+        public void requestDisallowInterceptTouchEvent() {
+            log.add("disallow");
+        }
+    }
+
+    /**
+     * Dispatches events to the machine as ViewGroup.dispatchTouchEvent does
+     * when the child under the finger consumes every event given to it.
+     */
+    private static class Dispatcher {
+        final GestureStateMachine machine;
+        final FakeCallback callback;
+        boolean intercepted;
+
+        Dispatcher(boolean lazy) {
+            callback = new FakeCallback();
+            machine = new GestureStateMachine(callback);
+            machine.setTouchSlop(TOUCH_SLOP);
+            machine.setTotalDragDistance(TOTAL_DRAG_DISTANCE);
+            machine.setLazyScrollCheck(lazy);
+        }
+
+        void dispatch(int action, int pointerId, float x, float y, long time) {
+            if (action == ACTION_DOWN) {
+                intercepted = false;
+            }
+            if (intercepted) {
+                callback.log.add("touch " + machine.onTouchEvent(action, pointerId, x, y, time));
+                return;
+            }
+            if (callback.log.contains("disallow") && action != ACTION_DOWN) {
+                // the child handles the rest
+                return;
+            }
+            intercepted = machine.onInterceptTouchEvent(action, pointerId, x, y, time);
+            callback.log.add("intercept " + intercepted);
+        }
+
+        void start(int scrollable, int spinnerless) {
+            callback.log.clear();
+            callback.scrollable = scrollable;
+            callback.spinnerless = spinnerless;
+        }
+    }
+
+    private static void swipe(Dispatcher dispatcher, float x, float y, float dx, float dy,
+                              int steps) {
+        long time = 0;
+        dispatcher.dispatch(ACTION_DOWN, 0, x, y, time);
+        for (int i = 1; i <= steps; ++i) {
+            time += 8;
+            dispatcher.dispatch(ACTION_MOVE, 0, x + dx * i / steps, y + dy * i / steps, time);
+        }
+        dispatcher.dispatch(ACTION_UP, 0, x + dx, y + dy, time + 8);
+    }
+
+    @Test
+    public void swipeOverDistanceTriggers() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        // the content can be scrolled down only
+        dispatcher.start(SCROLL_DOWN, 0);
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        assertTrue(dispatcher.callback.log.contains("prepare " + DIRECTION_TOP));
+        assertEquals("trigger", lastAction(dispatcher.callback.log));
+    }
+
+    @Test
+    public void shortSwipeCancels() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        dispatcher.start(SCROLL_DOWN, 0);
+        swipe(dispatcher, 500, 300, 0, 200, 10);
+        assertTrue(dispatcher.callback.log.contains("prepare " + DIRECTION_TOP));
+        assertEquals("cancel", lastAction(dispatcher.callback.log));
+    }
+
+    @Test
+    public void scrollableContentKeepsSwipe() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        dispatcher.start(SCROLL_UP | SCROLL_DOWN, 0);
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        assertFalse(dispatcher.callback.log.contains("prepare " + DIRECTION_TOP));
+        assertTrue(dispatcher.callback.log.contains("disallow"));
+    }
+
+    @Test
+    public void tapNeverChecksScroll() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        dispatcher.start(SCROLL_DOWN, 0);
+        swipe(dispatcher, 500, 300, 2, 2, 3);
+        assertEquals(0, dispatcher.callback.scrollChecks);
+    }
+
+    @Test
+    public void swipeChecksScrollOnce() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        dispatcher.start(SCROLL_DOWN, 0);
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        dispatcher.start(SCROLL_UP | SCROLL_DOWN, 0);
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        dispatcher.start(0, 0);
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        assertEquals(3, dispatcher.callback.scrollChecks);
+    }
+
+    @Test
+    public void disabledLayoutKeepsSpinner() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        dispatcher.start(SCROLL_DOWN, 0);
+        dispatcher.callback.enabled = false;
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        assertFalse(dispatcher.callback.log.contains("interrupt"));
+        dispatcher.start(SCROLL_DOWN, 0);
+        dispatcher.callback.enabled = true;
+        swipe(dispatcher, 500, 300, 0, 600, 30);
+        assertEquals("interrupt", dispatcher.callback.log.get(0));
+    }
+
+    @Test
+    public void touchesInDrawerMarginAreNotIntercepted() {
+        final Dispatcher dispatcher = new Dispatcher(true);
+        dispatcher.machine.useMarginForDrawer(true, 60);
+        dispatcher.start(SCROLL_LEFT, 0);
+        swipe(dispatcher, 10, 500, 600, 0, 30);
+        assertFalse(dispatcher.callback.log.contains("prepare " + DIRECTION_LEFT));
+        assertFalse(dispatcher.callback.log.contains("intercept true"));
+    }
+
+    private static String lastAction(List<String> log) {
+        for (int i = log.size() - 1; i >= 0; --i) {
+            final String entry = log.get(i);
+            if (!entry.startsWith("intercept") && !entry.startsWith("touch")) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replays random gestures and random children through the lazy and the
+     * eager scroll check. Both have to intercept and move the spinner the
+     * same way.
+     */
+    @Test
+    public void lazyScrollCheckIsEquivalentToEager() {
+        final Random random = new Random(20160405);
+        final Dispatcher lazy = new Dispatcher(true);
+        final Dispatcher eager = new Dispatcher(false);
+        final int gestures = 100000;
+        for (int g = 0; g < gestures; ++g) {
+            final int scrollable = random.nextInt(SCROLL_ALL + 1);
+            final int spinnerless = random.nextInt(32);
+            final boolean margin = random.nextBoolean();
+            final boolean multiTouchCancel = random.nextBoolean();
+            lazy.start(scrollable, spinnerless);
+            eager.start(scrollable, spinnerless);
+            lazy.machine.useMarginForDrawer(margin, 60);
+            eager.machine.useMarginForDrawer(margin, 60);
+            lazy.machine.setCancelByMultiTouch(multiTouchCancel);
+            eager.machine.setCancelByMultiTouch(multiTouchCancel);
+
+            float x = random.nextInt(WIDTH);
+            float y = random.nextInt(HEIGHT);
+            final float vx = (random.nextFloat() - 0.5f) * 80;
+            final float vy = (random.nextFloat() - 0.5f) * 80;
+            long time = 0;
+            lazy.dispatch(ACTION_DOWN, 0, x, y, time);
+            eager.dispatch(ACTION_DOWN, 0, x, y, time);
+            final int moves = random.nextInt(40);
+            for (int m = 0; m < moves; ++m) {
+                time += 8;
+                x += vx + (random.nextFloat() - 0.5f) * 10;
+                y += vy + (random.nextFloat() - 0.5f) * 10;
+                int action = ACTION_MOVE;
+                int pointerId = 0;
+                if (random.nextInt(50) == 0) {
+                    action = ACTION_POINTER_DOWN;
+                    pointerId = 1;
+                } else if (random.nextInt(50) == 0) {
+                    action = ACTION_POINTER_UP;
+                }
+                lazy.dispatch(action, pointerId, x, y, time);
+                eager.dispatch(action, pointerId, x, y, time);
+            }
+            final int end = random.nextInt(10) == 0 ? ACTION_CANCEL : ACTION_UP;
+            lazy.dispatch(end, 0, x, y, time + 8);
+            eager.dispatch(end, 0, x, y, time + 8);
+
+            assertEquals("gesture " + g, eager.callback.log, lazy.callback.log);
+        }
+        // the eager check walks at every ACTION_DOWN, the lazy one only when
+        // the touch slop is crossed
+        assertEquals(gestures, eager.callback.scrollChecks);
+        assertTrue(lazy.callback.scrollChecks <= eager.callback.scrollChecks);
+    }
+}
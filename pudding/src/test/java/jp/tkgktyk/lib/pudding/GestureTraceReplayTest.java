@@ -0,0 +1,330 @@
+package jp.tkgktyk.lib.pudding;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static jp.tkgktyk.lib.pudding.GestureStateMachine.*;
+import static org.junit.Assert.*;
+
+/**
+ * Records gestures as PuddingLayout does and replays them through
+ * {@link GestureTraceReplayer}, and replays the checked-in session.trace: a
+ * pull to trigger, a short pull, a list scroll, a tap, a side swipe, a flick
+ * and a swipe from the drawer margin with batched history and jitter. Both are
+ * recorded with the settings of the module on a xxhdpi device. Traces dumped
+ * from devices are replayed too when the system property "pudding.traces"
+ * names a directory of *.trace files.
+ */
+public class GestureTraceReplayTest {
+    private static final int WIDTH = 1080;
+    private static final int TOUCH_SLOP = 24;
+    private static final float TOTAL_DRAG_DISTANCE = 192;
+    // as ModPudding at density 3
+    private static final float FLING_TRIGGER_VELOCITY = 2400;
+    private static final int FLING_TRIGGER_PROJECTION = 100;
+    private static final int MARGIN_FOR_DRAWER = 60;
+
+    /**
+     * Records the scroll checks like PuddingLayout.GestureCallback and logs
+     * the decisions like the replayer.
+     */
+    private static class RecordingCallback implements Callback {
+        final GestureTrace trace;
+        final List<String> log = new ArrayList<>();
+        int scrollable;
+
+        RecordingCallback(GestureTrace trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isRefreshing() {
+            return false;
+        }
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int checkChildrenScroll(float x, float y, int directions) {
+            final int scroll = scrollable & directions;
+            trace.record(GestureTrace.TYPE_SCROLL, directions, scroll, x, y, 0);
+            return scroll;
+        }
+
+        @Override
+        public boolean isNestedScrolling(int direction) {
+            return false;
+        }
+
+        @Override
+        public int interruptSpinner() {
+            return 0;
+        }
+
+        @Override
+        public boolean prepareSpinner(int direction, boolean takeover) {
+            log.add("prepare " + direction);
+            return true;
+        }
+
+        @Override
+        public float calculateTakeoverDistance() {
+            return 0;
+        }
+
+        @Override
+        public void moveSpinner(float overscroll) {
+            log.add("move " + overscroll);
+        }
+
+        @Override
+        public void triggerSpinner() {
+            log.add("trigger");
+        }
+
+        @Override
+        public void cancelSpinner() {
+            log.add("cancel");
+        }
+
+        @Override
+        public void requestDisallowInterceptTouchEvent() {
+            log.add("disallow");
+        }
+    }
+
+    /**
+     * Dispatches like ViewGroup and records like PuddingLayout.dispatchGesture.
+     */
+    private static class Recorder {
+        final GestureTrace trace = new GestureTrace(4096);
+        final RecordingCallback callback = new RecordingCallback(trace);
+        final GestureStateMachine machine;
+        boolean intercepted;
+        boolean disallowed;
+
+        Recorder() {
+            this(true);
+        }
+
+        Recorder(boolean marginForDrawer) {
+            setModuleSettings(trace.getSettings());
+            if (!marginForDrawer) {
+                trace.getSettings().flags &= ~GestureTrace.FLAG_MARGIN_FOR_DRAWER;
+            }
+            machine = GestureTraceReplayer.newMachine(callback, trace.getSettings());
+        }
+
+        void dispatch(int action, float x, float y, long time) {
+            if (action == ACTION_DOWN) {
+                intercepted = false;
+                disallowed = false;
+            }
+            if (intercepted) {
+                trace.record(GestureTrace.TYPE_TOUCH, action, 0, x, y, time);
+                callback.log.add("touch " + machine.onTouchEvent(action, 0, x, y, time));
+                return;
+            }
+            if (disallowed) {
+                return;
+            }
+            trace.record(GestureTrace.TYPE_INTERCEPT, action, 0, x, y, time);
+            final int logged = callback.log.size();
+            intercepted = machine.onInterceptTouchEvent(action, 0, x, y, time);
+            // only a disallow of this gesture
+            disallowed = callback.log.subList(logged, callback.log.size()).contains("disallow");
+            callback.log.add("intercept " + intercepted);
+        }
+
+        void swipe(int scrollable, float x, float y, float dx, float dy, int steps) {
+            callback.scrollable = scrollable;
+            long time = 0;
+            dispatch(ACTION_DOWN, x, y, time);
+            for (int i = 1; i <= steps; ++i) {
+                time += 8;
+                dispatch(ACTION_MOVE, x + dx * i / steps, y + dy * i / steps, time);
+            }
+            dispatch(ACTION_UP, x + dx, y + dy, time + 8);
+        }
+    }
+
+    private static void setModuleSettings(GestureTrace.Settings settings) {
+        settings.width = WIDTH;
+        settings.touchSlop = TOUCH_SLOP;
+        settings.totalDragDistance = TOTAL_DRAG_DISTANCE;
+        settings.flags = GestureTrace.FLAG_LAZY_SCROLL_CHECK
+                | GestureTrace.FLAG_TRIGGER_IMMEDIATELY
+                | GestureTrace.FLAG_MARGIN_FOR_DRAWER
+                | GestureTrace.FLAG_CANCEL_BY_MULTI_TOUCH;
+        settings.marginForDrawer = MARGIN_FOR_DRAWER;
+        settings.flingMinVelocity = FLING_TRIGGER_VELOCITY;
+        settings.flingProjectionMillis = FLING_TRIGGER_PROJECTION;
+    }
+
+    private static Recorder recordSession() {
+        final Recorder recorder = new Recorder();
+        // pull down to trigger, short pull, scrollable list, tap, side swipe
+        recorder.swipe(SCROLL_DOWN, 500, 300, 0, 600, 30);
+        recorder.swipe(SCROLL_DOWN, 500, 300, 0, 200, 10);
+        recorder.swipe(SCROLL_UP | SCROLL_DOWN, 500, 300, 0, 600, 30);
+        recorder.swipe(SCROLL_DOWN, 500, 300, 2, 2, 3);
+        recorder.swipe(SCROLL_UP | SCROLL_DOWN, 900, 800, -700, 10, 20);
+        // a flick short of the distance, and a swipe from the drawer margin
+        recorder.swipe(SCROLL_DOWN, 500, 300, 0, 280, 9);
+        recorder.swipe(SCROLL_UP | SCROLL_DOWN, 20, 800, 700, 10, 20);
+        return recorder;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final GestureTrace trace = recordSession().trace;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        final GestureTrace read = GestureTrace.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(trace.getSettings().toString(), read.getSettings().toString());
+        assertEquals(trace.size(), read.size());
+        for (int n = 0; n < trace.size(); ++n) {
+            assertEquals(trace.getType(n), read.getType(n));
+            assertEquals(trace.getAction(n), read.getAction(n));
+            assertEquals(trace.getPointer(n), read.getPointer(n));
+            assertEquals(trace.getX(n), read.getX(n), 0);
+            assertEquals(trace.getY(n), read.getY(n), 0);
+            assertEquals(trace.getTime(n), read.getTime(n));
+        }
+    }
+
+    @Test
+    public void ringKeepsNewest() {
+        final GestureTrace trace = new GestureTrace(4);
+        for (int i = 0; i < 10; ++i) {
+            trace.record(GestureTrace.TYPE_TOUCH, ACTION_MOVE, 0, i, i, i);
+        }
+        assertEquals(4, trace.size());
+        assertEquals(6, trace.getTime(0));
+        assertEquals(9, trace.getTime(3));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherData() throws IOException {
+        GestureTrace.readFrom(new ByteArrayInputStream(new byte[16]));
+    }
+
+    @Test
+    public void replayReproducesDecisions() {
+        final Recorder recorder = recordSession();
+        final GestureTraceReplayer.Result result =
+                new GestureTraceReplayer().replay(recorder.trace);
+        assertEquals(recorder.callback.log, result.decisions);
+        assertTrue(result.decisions.contains("trigger"));
+        assertTrue(result.decisions.contains("cancel"));
+    }
+
+    @Test
+    public void replayAppliesFlingTrigger() {
+        final GestureTrace trace = recordSession().trace;
+        final GestureTraceReplayer replayer = new GestureTraceReplayer();
+        // the flick is the last gesture that pulls the spinner
+        final List<String> outcomes = outcomes(replayer.replay(trace));
+        assertEquals("trigger", outcomes.get(outcomes.size() - 1));
+        trace.getSettings().flingMinVelocity = 0;
+        final List<String> withoutFling = outcomes(replayer.replay(trace));
+        assertEquals("cancel", withoutFling.get(withoutFling.size() - 1));
+    }
+
+    @Test
+    public void replayAppliesMarginForDrawer() {
+        // without the margin, so that the scroll checks of the swipe are recorded
+        final Recorder recorder = new Recorder(false);
+        recorder.swipe(SCROLL_UP | SCROLL_DOWN, 20, 800, 700, 10, 20);
+        final GestureTraceReplayer replayer = new GestureTraceReplayer();
+        assertTrue(outcomes(replayer.replay(recorder.trace))
+                .contains("prepare " + DIRECTION_LEFT));
+        recorder.trace.getSettings().flags |= GestureTrace.FLAG_MARGIN_FOR_DRAWER;
+        assertFalse(outcomes(replayer.replay(recorder.trace))
+                .contains("prepare " + DIRECTION_LEFT));
+    }
+
+    private static List<String> outcomes(GestureTraceReplayer.Result result) {
+        final List<String> outcomes = new ArrayList<>();
+        for (String decision : result.decisions) {
+            if (!decision.startsWith("intercept") && !decision.startsWith("touch")
+                    && !decision.startsWith("move")) {
+                outcomes.add(decision);
+            }
+        }
+        return outcomes;
+    }
+
+    @Test
+    public void replayFixture() throws IOException {
+        final InputStream in = getClass().getResourceAsStream("session.trace");
+        assertNotNull("session.trace is missing", in);
+        final GestureTrace trace;
+        try {
+            trace = GestureTrace.readFrom(in);
+        } finally {
+            in.close();
+        }
+        final GestureTraceReplayer.Result result = new GestureTraceReplayer().replay(trace);
+        assertTrue(result.settings.hasFlag(GestureTrace.FLAG_MARGIN_FOR_DRAWER));
+        assertEquals(FLING_TRIGGER_VELOCITY, result.settings.flingMinVelocity, 0);
+        assertEquals(Arrays.asList("prepare " + DIRECTION_TOP, "trigger",
+                "prepare " + DIRECTION_TOP, "cancel",
+                "disallow",
+                "prepare " + DIRECTION_RIGHT, "trigger",
+                "prepare " + DIRECTION_TOP, "trigger"), outcomes(result));
+
+        // the check at ACTION_DOWN has to decide the same as the lazy one
+        assertTrue(result.settings.hasFlag(GestureTrace.FLAG_LAZY_SCROLL_CHECK));
+        trace.getSettings().flags &= ~GestureTrace.FLAG_LAZY_SCROLL_CHECK;
+        assertEquals(result.decisions, new GestureTraceReplayer().replay(trace).decisions);
+    }
+
+    /**
+     * Replays the corpus of traces dumped by
+     * {@link PuddingLayout#dumpGestureTrace(java.io.OutputStream)}, each with
+     * the configuration written in it.
+     */
+    @Test
+    public void replayCorpus() throws IOException {
+        final String directory = System.getProperty("pudding.traces");
+        if (directory == null) {
+            return;
+        }
+        final File[] files = new File(directory).listFiles();
+        if (files == null) {
+            return;
+        }
+        final GestureTraceReplayer replayer = new GestureTraceReplayer();
+        for (File file : files) {
+            if (!file.getName().endsWith(".trace")) {
+                continue;
+            }
+            final InputStream in = new FileInputStream(file);
+            try {
+                final GestureTraceReplayer.Result result =
+                        replayer.replay(GestureTrace.readFrom(in));
+                System.out.println(file.getName() + ": " + result);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
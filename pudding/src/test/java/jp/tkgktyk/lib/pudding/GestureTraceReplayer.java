@@ -0,0 +1,203 @@
+package jp.tkgktyk.lib.pudding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeds a {@link GestureTrace} back through a {@link GestureStateMachine} and
+ * reports the decisions made and the time per event. The state machine is
+ * configured as the layout that wrote the trace. The scroll checks are
+ * answered with the recorded answers of the same gesture, and directions
+ * never checked in the recording are not scrollable.
+ * FLAG_TRIGGER_IMMEDIATELY only changes when the layout notifies, not the
+ * decisions, and is shown with the result.
+ */
+class GestureTraceReplayer {
+
+    static class Result {
+        final List<String> decisions = new ArrayList<>();
+        GestureTrace.Settings settings;
+        int events;
+        long nanos;
+
+        float nanosPerEvent() {
+            return events > 0 ? (float) nanos / events : 0;
+        }
+
+        @Override
+        public String toString() {
+            return events + " events, " + nanosPerEvent() + "ns/event (" + settings + ")";
+        }
+    }
+
+    /**
+     * Answers from the recording, and logs decisions if a log is given.
+     */
+    private static class ReplayCallback implements GestureStateMachine.Callback {
+        List<String> log;
+        int checked;
+        int scrollable;
+        int width;
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isRefreshing() {
+            return false;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int checkChildrenScroll(float x, float y, int directions) {
+            return scrollable & checked & directions;
+        }
+
+        @Override
+        public boolean isNestedScrolling(int direction) {
+            return false;
+        }
+
+        @Override
+        public int interruptSpinner() {
+            return 0;
+        }
+
+        @Override
+        public boolean prepareSpinner(int direction, boolean takeover) {
+            if (log != null) {
+                log.add("prepare " + direction);
+            }
+            return true;
+        }
+
+        @Override
+        public float calculateTakeoverDistance() {
+            return 0;
+        }
+
+        @Override
+        public void moveSpinner(float overscroll) {
+            if (log != null) {
+                log.add("move " + overscroll);
+            }
+        }
+
+        @Override
+        public void triggerSpinner() {
+            if (log != null) {
+                log.add("trigger");
+            }
+        }
+
+        @Override
+        public void cancelSpinner() {
+            if (log != null) {
+                log.add("cancel");
+            }
+        }
+
+        @Override
+        public void requestDisallowInterceptTouchEvent() {
+            if (log != null) {
+                log.add("disallow");
+            }
+        }
+    }
+
+    static GestureStateMachine newMachine(GestureStateMachine.Callback callback,
+                                          GestureTrace.Settings settings) {
+        final GestureStateMachine machine = new GestureStateMachine(callback);
+        machine.readSettings(settings);
+        return machine;
+    }
+
+    /**
+     * Replay once with the decisions logged, and once more without to measure.
+     */
+    Result replay(GestureTrace trace) {
+        final Result result = new Result();
+        result.settings = trace.getSettings();
+        final ReplayCallback callback = new ReplayCallback();
+        callback.width = result.settings.width;
+        callback.log = result.decisions;
+        run(trace, newMachine(callback, result.settings), callback, result.decisions);
+
+        callback.log = null;
+        final GestureStateMachine machine = newMachine(callback, result.settings);
+        // warm up
+        run(trace, machine, callback, null);
+        final long start = System.nanoTime();
+        result.events = run(trace, machine, callback, null);
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * @return The number of events replayed.
+     */
+    private static int run(GestureTrace trace, GestureStateMachine machine,
+                           ReplayCallback callback, List<String> log) {
+        final int size = trace.size();
+        int events = 0;
+        for (int n = 0; n < size; ++n) {
+            final int action = trace.getAction(n);
+            final int pointer = trace.getPointer(n);
+            final float x = trace.getX(n);
+            final float y = trace.getY(n);
+            final long time = trace.getTime(n);
+            switch (trace.getType(n)) {
+                case GestureTrace.TYPE_INTERCEPT:
+                    if (action == GestureStateMachine.ACTION_DOWN) {
+                        loadScroll(trace, n, callback);
+                    }
+                    final boolean intercepted =
+                            machine.onInterceptTouchEvent(action, pointer, x, y, time);
+                    if (log != null) {
+                        log.add("intercept " + intercepted);
+                    }
+                    ++events;
+                    break;
+                case GestureTrace.TYPE_TOUCH:
+                    final boolean handled = machine.onTouchEvent(action, pointer, x, y, time);
+                    if (log != null) {
+                        log.add("touch " + handled);
+                    }
+                    ++events;
+                    break;
+                case GestureTrace.TYPE_HISTORY:
+                    machine.addHistoricalSample(time, x, y);
+                    break;
+                case GestureTrace.TYPE_SCROLL:
+                    // answered by loadScroll
+                    break;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Collect the scroll checks recorded in the gesture starting at n.
+     */
+    private static void loadScroll(GestureTrace trace, int n, ReplayCallback callback) {
+        callback.checked = 0;
+        callback.scrollable = 0;
+        final int size = trace.size();
+        for (int i = n + 1; i < size; ++i) {
+            final byte type = trace.getType(i);
+            if (type == GestureTrace.TYPE_SCROLL) {
+                callback.checked |= trace.getAction(i);
+                callback.scrollable |= trace.getPointer(i);
+            } else if (type == GestureTrace.TYPE_INTERCEPT
+                    && trace.getAction(i) == GestureStateMachine.ACTION_DOWN) {
+                break;
+            }
+        }
+    }
+}
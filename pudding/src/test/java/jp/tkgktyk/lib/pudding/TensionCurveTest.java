@@ -0,0 +1,95 @@
+package jp.tkgktyk.lib.pudding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link TensionCurve} with the formula of SwipeRefreshLayout that it
+ * replaces.
+ */
+public class TensionCurveTest {
+    private static final float[][] CONFIGURATIONS = {
+            // totalDragDistance, slingshotDistance
+            {64, 64}, {128, 128}, {192, 192}, {256, 256},
+            {300, 192}, {100, 250}, {1, 1},
+    };
+
+    /**
+     * The formula of SwipeRefreshLayout.moveSpinner.
+     */
+    private static float reference(float overscroll, float totalDragDistance,
+                                   float slingshotDist) {
+        float originalDragPercent = overscroll / totalDragDistance;
+        float dragPercent = Math.min(1f, Math.abs(originalDragPercent));
+        float extraOS = Math.abs(overscroll) - totalDragDistance;
+        float tensionSlingshotPercent = Math.max(0, Math.min(extraOS, slingshotDist * 2)
+                / slingshotDist);
+        float tensionPercent = (float) ((tensionSlingshotPercent / 4) - Math.pow(
+                (tensionSlingshotPercent / 4), 2)) * 2f;
+        float extraMove = (slingshotDist) * tensionPercent * 2;
+        return (slingshotDist * dragPercent) + extraMove;
+    }
+
+    @Test
+    public void matchesReference() {
+        final TensionCurve curve = new TensionCurve();
+        int pixelMismatches = 0;
+        int samples = 0;
+        for (float[] configuration : CONFIGURATIONS) {
+            final float total = configuration[0];
+            final float slingshot = configuration[1];
+            curve.configure(total, slingshot);
+            final float end = (total + slingshot * 2) * 1.5f;
+            for (float overscroll = 0; overscroll <= end; overscroll += 0.25f) {
+                final float expected = reference(overscroll, total, slingshot);
+                final float actual = curve.offset(overscroll);
+                assertEquals("overscroll " + overscroll + " of " + total + "/" + slingshot,
+                        expected, actual, 0.01);
+                if ((int) expected != (int) actual) {
+                    ++pixelMismatches;
+                }
+                ++samples;
+            }
+        }
+        // float rounding may flip a truncation exactly on a pixel boundary
+        assertTrue(pixelMismatches + "/" + samples, pixelMismatches * 1000 < samples);
+    }
+
+    @Test
+    public void reconfigure() {
+        final TensionCurve curve = new TensionCurve();
+        curve.configure(64, 64);
+        assertEquals(128, curve.offset(1000), 0.001);
+        curve.configure(128, 64);
+        assertEquals(32, curve.offset(64), 0.001);
+        assertEquals(128, curve.offset(1000), 0.001);
+    }
+
+    @Test
+    public void benchmark() {
+        final TensionCurve curve = new TensionCurve();
+        final float total = 192;
+        final float slingshot = 192;
+        curve.configure(total, slingshot);
+        final int iterations = 2000000;
+        float sink = 0;
+        // warm up both
+        for (int i = 0; i < iterations; ++i) {
+            sink += reference(i % 1000, total, slingshot);
+            sink += curve.offset(i % 1000);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            sink += reference(i % 1000, total, slingshot);
+        }
+        final long referenceNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            sink += curve.offset(i % 1000);
+        }
+        final long curveNanos = System.nanoTime() - start;
+        System.out.println("tension: formula " + (float) referenceNanos / iterations
+                + "ns/op, curve " + (float) curveNanos / iterations + "ns/op (" + sink + ")");
+    }
+}
@@ -0,0 +1,80 @@
+package jp.tkgktyk.xposed.pudding;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.InstrumentationTestCase;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Compares the cost of getting an icon from a Base64 PNG, as the hook did
+ * before, with the cost of reading it from the mapped {@link SettingsFile}.
+ */
+public class SettingsFileBenchmark extends InstrumentationTestCase {
+    private static final String TAG = SettingsFileBenchmark.class.getSimpleName();
+
+    private static final int ICON_SIZE = 144;
+    private static final int ITERATIONS = 500;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("settings", ".bin",
+                getInstrumentation().getTargetContext().getCacheDir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testIcon() throws Exception {
+        final int[] icon = new int[ICON_SIZE * ICON_SIZE];
+        for (int i = 0; i < icon.length; ++i) {
+            icon[i] = 0xff000000 | (i * 3);
+        }
+        new SettingsFile.Builder()
+                .setAction(SettingsFile.ACTION_TOP, 1, "#Intent;action=BACK;end", "Back",
+                        icon, ICON_SIZE, ICON_SIZE)
+                .writeTo(mFile);
+        // as ActionInfo.Record keeps it
+        final ByteArrayOutputStream png = new ByteArrayOutputStream();
+        Bitmap.createBitmap(icon, ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888)
+                .compress(Bitmap.CompressFormat.PNG, 100, png);
+        final String iconBase64 = Base64.encodeToString(png.toByteArray(), Base64.DEFAULT);
+
+        final int[] pixels = new int[ICON_SIZE * ICON_SIZE];
+        // warm up both
+        for (int i = 0; i < ITERATIONS / 10; ++i) {
+            decode(iconBase64, pixels);
+            SettingsFile.map(mFile).readIconPixels(SettingsFile.ACTION_TOP, pixels);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            decode(iconBase64, pixels);
+        }
+        final long decodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            SettingsFile.map(mFile).readIconPixels(SettingsFile.ACTION_TOP, pixels);
+        }
+        final long mapNanos = System.nanoTime() - start;
+        assertTrue(Arrays.equals(icon, pixels));
+        Log.i(TAG, "icon: base64 png " + decodeNanos / ITERATIONS / 1000
+                + "us, mapped " + mapNanos / ITERATIONS / 1000 + "us");
+    }
+
+    private static void decode(String iconBase64, int[] pixels) {
+        final byte[] bytes = Base64.decode(iconBase64, Base64.DEFAULT);
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        bitmap.getPixels(pixels, 0, ICON_SIZE, 0, 0, ICON_SIZE, ICON_SIZE);
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.pudding;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Bitmaps of the action icons shared by all PuddingLayouts of a process, so
+ * that an icon is made once and not for every window. The key is the content
+ * of the icon: its hash in the binary settings, or its Base64 in the
+ * preferences. A changed icon has another key, and the cache is emptied when
+ * the settings are read again so that old icons do not stay.
+ * <p>
+ * Evicted bitmaps are not recycled, as layouts may still draw them.
+ * </p>
+ */
+class ActionIconCache {
+    // KB, a few icons of launcher size
+    private static final int MAX_SIZE = 1024;
+
+    private static final LruCache<Object, Bitmap> mCache = new LruCache<Object, Bitmap>(
+            (int) Math.min(MAX_SIZE, Runtime.getRuntime().maxMemory() / 1024 / 64)) {
+        @Override
+        protected int sizeOf(Object key, Bitmap value) {
+            return Math.max(1, value.getByteCount() / 1024);
+        }
+    };
+
+    static Bitmap get(Object key) {
+        return mCache.get(key);
+    }
+
+    static void put(Object key, Bitmap bitmap) {
+        mCache.put(key, bitmap);
+    }
+
+    static void evictAll() {
+        mCache.evictAll();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.pudding;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable value loaded from files, shared by all threads and loaded
+ * again only after the modification time or the size of one of the files
+ * changes. A missing file is stamped as 0 and 0, so creating it is a change
+ * too.
+ * <p>
+ * The files are stamped before loading, so a change made while loading is
+ * seen by the next {@link #get()}. Threads that see a change at the same time
+ * may load it each, and the last one published wins.
+ * </p>
+ */
+class FileSnapshot<T> {
+
+    interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    private static final class Entry<T> {
+        final long[] modified;
+        final long[] length;
+        final T value;
+
+        Entry(long[] modified, long[] length, T value) {
+            this.modified = modified;
+            this.length = length;
+            this.value = value;
+        }
+
+        boolean matches(File[] files) {
+            for (int i = 0; i < files.length; ++i) {
+                if (files[i].lastModified() != modified[i] || files[i].length() != length[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final File[] mFiles;
+    private final Loader<T> mLoader;
+    private final AtomicReference<Entry<T>> mEntry = new AtomicReference<>();
+
+    FileSnapshot(Loader<T> loader, File... files) {
+        mLoader = loader;
+        mFiles = files;
+    }
+
+    T get() throws Exception {
+        final Entry<T> entry = mEntry.get();
+        if (entry != null && entry.matches(mFiles)) {
+            return entry.value;
+        }
+        final int count = mFiles.length;
+        final long[] modified = new long[count];
+        final long[] length = new long[count];
+        for (int i = 0; i < count; ++i) {
+            modified[i] = mFiles[i].lastModified();
+            length[i] = mFiles[i].length();
+        }
+        final T value = mLoader.load();
+        mEntry.set(new Entry<>(modified, length, value));
+        return value;
+    }
+}
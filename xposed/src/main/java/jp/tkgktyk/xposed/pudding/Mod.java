@@ -27,5 +27,6 @@ public class Mod implements IXposedHookZygoteInit, IXposedHookLoadPackage {
                 loadPackageParam.processName.equals("android")) {
             ModInternal.handleLoadPackage(loadPackageParam.classLoader);
         }
+        ModPudding.handleLoadPackage(loadPackageParam);
     }
 }
@@ -17,8 +17,12 @@
 package jp.tkgktyk.xposed.pudding;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -28,13 +32,19 @@ import android.view.ViewGroup;
 import com.google.common.base.Objects;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XC_MethodReplacement;
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedHelpers;
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
 import jp.tkgktyk.lib.pudding.PuddingLayout;
-import jp.tkgktyk.xposed.pudding.app.util.ActionInfo;
 
 /**
  * Created by tkgktyk on 2015/02/13.
@@ -47,11 +57,43 @@ public class ModPudding extends XposedModule {
 
     private static final String FIELD_SETTINGS = Pudding.NAME + "_settings";
     private static final String FIELD_PUDDING_LAYOUT = Pudding.NAME + "_puddingLayout";
+    private static final String FIELD_DUMP_RECEIVER = Pudding.NAME + "_dumpReceiver";
+
+    // dp per second and milliseconds
+    private static final float FLING_TRIGGER_VELOCITY = 800;
+    private static final int FLING_TRIGGER_PROJECTION = 100;
 
     private static XSharedPreferences mPrefs;
+    // settings of the packages in this process, loaded again only when changed
+    private static final ConcurrentHashMap<String, FileSnapshot<Pudding.Settings>> mSnapshots
+            = new ConcurrentHashMap<>();
 
     public static void initZygote(XSharedPreferences prefs) {
         mPrefs = prefs;
+    }
+
+    /**
+     * Install the hooks only into the processes of enabled packages, so that
+     * the others never pass through them. The first package of a process
+     * decides, and a change of the list takes effect when the process is
+     * started again.
+     *
+     * @param loadPackageParam
+     */
+    public static void handleLoadPackage(XC_LoadPackage.LoadPackageParam loadPackageParam) {
+        if (!loadPackageParam.isFirstApplication) {
+            return;
+        }
+        try {
+            final String packageName = loadPackageParam.packageName;
+            if (!isEnabled(getSnapshot(packageName).get(), packageName)) {
+                logD("disabled in " + packageName);
+                return;
+            }
+        } catch (Throwable t) {
+            logE(t);
+            return;
+        }
         try {
             XposedHelpers.findAndHookMethod(Activity.class, "onCreate", Bundle.class,
                     new XC_MethodHook() {
@@ -59,19 +101,10 @@ public class ModPudding extends XposedModule {
                         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
                             try {
                                 Activity activity = (Activity) param.thisObject;
-                                mPrefs.reload();
-                                SharedPreferences forActions;
-                                String packageName = activity.getPackageName();
-                                Context modContext = Pudding.getModContext(activity);
-                                File xml = new File(new File(modContext.getApplicationInfo().dataDir,
-                                        "shared_prefs"), packageName + ".xml");
-                                forActions = xml.exists() ?
-                                        Pudding.getSharedPreferences(activity, packageName) :
-                                        mPrefs;
-                                Pudding.Settings settings = new Pudding.Settings(mPrefs, forActions);
-                                final boolean contain = settings.blacklist.contains(activity.getPackageName());
-                                final boolean white = settings.whitelistMode ? contain : !contain;
-                                if (white && !activity.isChild()
+                                Pudding.Settings settings = getSnapshot(activity.getPackageName()).get();
+                                // the list may have changed since the process started
+                                if (isEnabled(settings, activity.getPackageName())
+                                        && !activity.isChild()
                                         && !isIgnoredByWorkaround1(settings, activity)) {
                                     XposedHelpers.setAdditionalInstanceField(activity,
                                             FIELD_SETTINGS, settings);
@@ -100,6 +133,11 @@ public class ModPudding extends XposedModule {
                                 if (pudding != null) {
                                     XposedHelpers.removeAdditionalInstanceField(activity, FIELD_PUDDING_LAYOUT);
                                 }
+                                BroadcastReceiver receiver = (BroadcastReceiver) XposedHelpers
+                                        .removeAdditionalInstanceField(activity, FIELD_DUMP_RECEIVER);
+                                if (receiver != null) {
+                                    activity.unregisterReceiver(receiver);
+                                }
                             } catch (Throwable t) {
                                 logE(t);
                             }
@@ -218,6 +256,62 @@ public class ModPudding extends XposedModule {
         return (Pudding.Settings) XposedHelpers.getAdditionalInstanceField(object, FIELD_SETTINGS);
     }
 
+    private static boolean isEnabled(Pudding.Settings settings, String packageName) {
+        final boolean contain = settings.blacklist.contains(packageName);
+        return settings.whitelistMode ? contain : !contain;
+    }
+
+    /**
+     * The settings of the package are read from the module settings and from
+     * the actions of the package if it has its own. The binary settings are
+     * mapped once the settings app has written them, the preferences are read
+     * until then.
+     */
+    private static FileSnapshot<Pudding.Settings> getSnapshot(String packageName) {
+        FileSnapshot<Pudding.Settings> snapshot = mSnapshots.get(packageName);
+        if (snapshot == null) {
+            final File prefsFile = mPrefs.getFile();
+            final File actionsFile = new File(prefsFile.getParentFile(), packageName + ".xml");
+            final File filesDir = new File(prefsFile.getParentFile().getParentFile(), "files");
+            final File settingsFile = Pudding.getSettingsFile(filesDir);
+            final File actionsSettingsFile = Pudding.getActionsFile(filesDir, packageName);
+            snapshot = new FileSnapshot<>(new FileSnapshot.Loader<Pudding.Settings>() {
+                @Override
+                public Pudding.Settings load() {
+                    // icons of the old settings are not needed any more
+                    ActionIconCache.evictAll();
+                    final Pudding.Settings settings = read();
+                    // so that an overscroll only fires a prepared intent
+                    settings.actions.compileLaunchers();
+                    return settings;
+                }
+
+                private Pudding.Settings read() {
+                    if (settingsFile.exists()) {
+                        try {
+                            final SettingsFile settings = SettingsFile.map(settingsFile);
+                            return new Pudding.Settings(settings, actionsSettingsFile.exists() ?
+                                    SettingsFile.map(actionsSettingsFile) : settings);
+                        } catch (IOException e) {
+                            // written by another version, until the settings app writes it again
+                            logE(e);
+                        }
+                    }
+                    mPrefs.reload();
+                    final SharedPreferences forActions = actionsFile.exists() ?
+                            new XSharedPreferences(actionsFile) : mPrefs;
+                    return new Pudding.Settings(mPrefs, forActions);
+                }
+            }, prefsFile, actionsFile, settingsFile, actionsSettingsFile);
+            final FileSnapshot<Pudding.Settings> existing = mSnapshots.putIfAbsent(packageName,
+                    snapshot);
+            if (existing != null) {
+                snapshot = existing;
+            }
+        }
+        return snapshot;
+    }
+
     private static PuddingLayout getPuddingLayout(Object object) {
         return (PuddingLayout) XposedHelpers.getAdditionalInstanceField(object, FIELD_PUDDING_LAYOUT);
     }
@@ -232,12 +326,78 @@ public class ModPudding extends XposedModule {
         }
         XposedHelpers.setAdditionalInstanceField(context,
                 FIELD_PUDDING_LAYOUT, puddingLayout);
+        // unregistered in onDestroy, so only for activities
+        if (BuildConfig.DEBUG && context instanceof Activity) {
+            registerDumpReceiver((Activity) context, puddingLayout);
+        }
         return puddingLayout;
     }
 
+    /**
+     * Write the traces of the layout into the cache directory of the app on
+     * {@link Pudding#ACTION_DUMP_TRACE}, which is sent by
+     * "adb shell am broadcast -a jp.tkgktyk.xposed.pudding.intent.action.DUMP_TRACE".
+     * The offsets go to a text file, and the gestures to a .trace file to be
+     * replayed by GestureTraceReplayer. The receiver runs on the main thread,
+     * which records the traces.
+     *
+     * @param activity
+     * @param puddingLayout
+     */
+    private static void registerDumpReceiver(final Activity activity,
+                                             final PuddingLayout puddingLayout) {
+        final BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                File dir = activity.getExternalCacheDir();
+                if (dir == null) {
+                    dir = activity.getCacheDir();
+                }
+                final String name = activity.getClass().getSimpleName() + "-"
+                        + System.currentTimeMillis();
+                final File offsets = new File(dir, name + ".offsets.txt");
+                try {
+                    final PrintWriter writer = new PrintWriter(new FileWriter(offsets));
+                    try {
+                        puddingLayout.dumpOffsetTrace(writer);
+                    } finally {
+                        writer.close();
+                    }
+                    log("dumped " + offsets);
+                } catch (IOException e) {
+                    logE(e);
+                }
+                final File gestures = new File(dir, name + ".trace");
+                try {
+                    final OutputStream out = new FileOutputStream(gestures);
+                    try {
+                        puddingLayout.dumpGestureTrace(out);
+                    } finally {
+                        out.close();
+                    }
+                    log("dumped " + gestures);
+                } catch (IOException e) {
+                    logE(e);
+                }
+            }
+        };
+        // setContentView again replaces the layout
+        final BroadcastReceiver old = (BroadcastReceiver) XposedHelpers
+                .removeAdditionalInstanceField(activity, FIELD_DUMP_RECEIVER);
+        if (old != null) {
+            activity.unregisterReceiver(old);
+        }
+        activity.registerReceiver(receiver, new IntentFilter(Pudding.ACTION_DUMP_TRACE));
+        XposedHelpers.setAdditionalInstanceField(activity, FIELD_DUMP_RECEIVER, receiver);
+    }
+
     private static PuddingLayout generatePudding(final Context context,
                                                  Pudding.Settings settings, ViewGroup.LayoutParams lp) {
         final PuddingLayout puddingLayout = new PuddingLayout(context);
+        // the overlay draws the same shadow as the child only where there is
+        // no elevation, so that the spinner looks the same in every app
+        puddingLayout.useOverlayIndicator(
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP);
         puddingLayout.setLayoutParams(lp != null ? lp :
                 new ViewGroup.LayoutParams(
                         ViewGroup.LayoutParams.WRAP_CONTENT,
@@ -245,51 +405,67 @@ public class ModPudding extends XposedModule {
 
         puddingLayout.useMarginForDrawer(settings.marginForDrawer);
         puddingLayout.setCancelByMultiTouch(settings.singleTouch);
+        puddingLayout.setLazyScrollCheck(true);
+        puddingLayout.setTriggerImmediately(true);
+        final float density = context.getResources().getDisplayMetrics().density;
+        puddingLayout.setFlingTrigger(FLING_TRIGGER_VELOCITY * density, FLING_TRIGGER_PROJECTION);
+        puddingLayout.setMoveByTranslation(true);
+        puddingLayout.setCoalesceMoves(true);
+        puddingLayout.setOffsetTraceEnabled(BuildConfig.DEBUG);
+        puddingLayout.setGestureTraceEnabled(BuildConfig.DEBUG);
+
+        // icons are made when their direction is pulled for the first time in
+        // the process
+        final Pudding.Settings.Actions actions = settings.actions;
+        puddingLayout.setDrawableSupplier(new PuddingLayout.DrawableSupplier() {
+            @Override
+            public Drawable getTopDrawable() {
+                return actions.newIconDrawable(context, SettingsFile.ACTION_TOP);
+            }
+
+            @Override
+            public Drawable getBottomDrawable() {
+                return actions.newIconDrawable(context, SettingsFile.ACTION_BOTTOM);
+            }
 
-        ActionInfo top = new ActionInfo(settings.actions.top);
-        puddingLayout.setTopDrawable(top.newIconDrawable(context));
-        ActionInfo bottom = new ActionInfo(settings.actions.bottom);
-        puddingLayout.setBottomDrawable(bottom.newIconDrawable(context));
-        ActionInfo left = new ActionInfo(settings.actions.left);
-        puddingLayout.setLeftDrawable(left.newIconDrawable(context));
-        ActionInfo right = new ActionInfo(settings.actions.right);
-        puddingLayout.setRightDrawable(right.newIconDrawable(context));
+            @Override
+            public Drawable getLeftDrawable() {
+                return actions.newIconDrawable(context, SettingsFile.ACTION_LEFT);
+            }
+
+            @Override
+            public Drawable getRightDrawable() {
+                return actions.newIconDrawable(context, SettingsFile.ACTION_RIGHT);
+            }
+        });
 
         puddingLayout.setOnOverscrollListener(new PuddingLayout.OnOverscrollListener() {
             @Override
             public void onOverscrollTop() {
-                Pudding.Settings settings = getSettings(context);
-                if (settings.vibrate) {
-                    puddingLayout.performHapticFeedback();
-                }
-                new ActionInfo(settings.actions.top).launch(context);
+                onOverscroll(SettingsFile.ACTION_TOP);
             }
 
             @Override
             public void onOverscrollBottom() {
-                Pudding.Settings settings = getSettings(context);
-                if (settings.vibrate) {
-                    puddingLayout.performHapticFeedback();
-                }
-                new ActionInfo(settings.actions.bottom).launch(context);
+                onOverscroll(SettingsFile.ACTION_BOTTOM);
             }
 
             @Override
             public void onOverscrollLeft() {
-                Pudding.Settings settings = getSettings(context);
-                if (settings.vibrate) {
-                    puddingLayout.performHapticFeedback();
-                }
-                new ActionInfo(settings.actions.left).launch(context);
+                onOverscroll(SettingsFile.ACTION_LEFT);
             }
 
             @Override
             public void onOverscrollRight() {
+                onOverscroll(SettingsFile.ACTION_RIGHT);
+            }
+
+            void onOverscroll(int action) {
                 Pudding.Settings settings = getSettings(context);
                 if (settings.vibrate) {
                     puddingLayout.performHapticFeedback();
                 }
-                new ActionInfo(settings.actions.right).launch(context);
+                settings.actions.launch(context, action);
             }
         });
 
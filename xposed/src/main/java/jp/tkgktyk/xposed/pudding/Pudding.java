@@ -4,15 +4,23 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
+import android.util.Log;
 import android.view.View;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.Set;
@@ -44,9 +52,16 @@ public class Pudding {
     // other internal functions
     public static final String ACTION_KILL = PREFIX_ACTION + "KILL";
     public static final String ACTION_POWER_MENU = PREFIX_ACTION + "POWER_MENU";
+    // debug builds dump the traces of the layouts, not an action of the user
+    public static final String ACTION_DUMP_TRACE = PREFIX_ACTION + "DUMP_TRACE";
 
     public static final IntentFilter INTERNAL_ACTION_FILTER;
 
+    private static final String SETTINGS_FILE_NAME = "settings.bin";
+    private static final String ACTIONS_FILE_SUFFIX = ".bin";
+    // fingerprints of the preferences of the exported files, by file name
+    private static final String EXPORT_STATE_NAME = PACKAGE_NAME + "_export";
+
     private static class Entry {
         final int nameId;
         final int iconId;
@@ -177,6 +192,129 @@ public class Pudding {
         return getModContext(context).getSharedPreferences(name, Context.MODE_WORLD_READABLE);
     }
 
+    /**
+     * The binary settings of the module, see {@link SettingsFile}.
+     *
+     * @param filesDir files directory of the module
+     * @return
+     */
+    public static File getSettingsFile(File filesDir) {
+        return new File(filesDir, SETTINGS_FILE_NAME);
+    }
+
+    /**
+     * The binary actions of a package that has its own.
+     *
+     * @param filesDir    files directory of the module
+     * @param packageName
+     * @return
+     */
+    public static File getActionsFile(File filesDir, String packageName) {
+        return new File(filesDir, packageName + ACTIONS_FILE_SUFFIX);
+    }
+
+    /**
+     * for Settings UI, {@link #exportSettings(Context)} on a background
+     * thread, one export after another.
+     *
+     * @param context
+     */
+    public static void exportSettingsAsync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                exportSettings(appContext);
+            }
+        });
+    }
+
+    /**
+     * for Settings UI, writes the preferences in the binary form read by the
+     * hooked processes, and removes the actions of the packages that have no
+     * preferences any more. Icons are decoded here once instead of in every
+     * hooked process. Only the packages with their own actions are exported,
+     * and a file is written again only when its preferences have changed.
+     *
+     * @param context
+     */
+    public static void exportSettings(Context context) {
+        final Context mod = getModContext(context);
+        final File filesDir = mod.getFilesDir();
+        final SharedPreferences state = mod.getSharedPreferences(EXPORT_STATE_NAME,
+                Context.MODE_PRIVATE);
+        final SharedPreferences.Editor stateEditor = state.edit();
+        final Set<String> exported = Sets.newHashSet();
+        try {
+            final SharedPreferences prefs = getSharedPreferences(mod);
+            final File settingsFile = getSettingsFile(filesDir);
+            final int fingerprint = fingerprint(prefs);
+            if (!isExported(state, settingsFile, fingerprint)) {
+                final Settings settings = new Settings(prefs);
+                final SettingsFile.Builder builder = new SettingsFile.Builder()
+                        .setFlags(settings.getFlags())
+                        .setBlacklist(settings.blacklist);
+                settings.actions.writeTo(builder);
+                builder.writeTo(settingsFile);
+                stateEditor.putInt(settingsFile.getName(), fingerprint);
+            }
+            exported.add(settingsFile.getName());
+
+            final String[] xmls = new File(mod.getApplicationInfo().dataDir, "shared_prefs")
+                    .list();
+            if (xmls != null) {
+                for (String xml : xmls) {
+                    if (xml.startsWith(PACKAGE_NAME) || !xml.endsWith(".xml")) {
+                        continue;
+                    }
+                    final String packageName = xml.substring(0, xml.lastIndexOf("."));
+                    final SharedPreferences actionPrefs = getSharedPreferences(mod, packageName);
+                    if (!Settings.Actions.isSaved(actionPrefs)) {
+                        // not written by ActionSetterActivity
+                        continue;
+                    }
+                    final File actionsFile = getActionsFile(filesDir, packageName);
+                    final int actionsFingerprint = fingerprint(actionPrefs);
+                    if (!isExported(state, actionsFile, actionsFingerprint)) {
+                        final SettingsFile.Builder actionsBuilder = new SettingsFile.Builder();
+                        new Settings.Actions(actionPrefs).writeTo(actionsBuilder);
+                        actionsBuilder.writeTo(actionsFile);
+                        stateEditor.putInt(actionsFile.getName(), actionsFingerprint);
+                    }
+                    exported.add(actionsFile.getName());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(NAME, "failed to export settings", e);
+            return;
+        }
+        final File[] files = filesDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(ACTIONS_FILE_SUFFIX)
+                        && !exported.contains(file.getName())) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                    stateEditor.remove(file.getName());
+                }
+            }
+        }
+        stateEditor.apply();
+    }
+
+    /**
+     * The values are read from memory, so the changes not yet written to the
+     * XML are taken into account, unlike the modified time of the XML.
+     */
+    private static int fingerprint(SharedPreferences prefs) {
+        return 31 * SettingsFile.VERSION + prefs.getAll().hashCode();
+    }
+
+    private static boolean isExported(SharedPreferences state, File file, int fingerprint) {
+        return file.exists() && state.contains(file.getName())
+                && state.getInt(file.getName(), 0) == fingerprint;
+    }
+
     public static class Settings implements Serializable {
         static final long serialVersionUID = 1L;
 
@@ -200,7 +338,9 @@ public class Pudding {
             // General
             // Detector
             whitelistMode = prefs.getBoolean("key_whitelist_mode", false);
-            blacklist = prefs.getStringSet("key_blacklist", Sets.<String>newHashSet());
+            // a copy, as the settings are shared by the activities of a process
+            blacklist = ImmutableSet.copyOf(prefs.getStringSet("key_blacklist",
+                    Sets.<String>newHashSet()));
             vibrate = prefs.getBoolean("key_vibration", true);
             marginForDrawer = prefs.getBoolean("key_margin_for_drawer", true);
             singleTouch = prefs.getBoolean("key_single_touch", true);
@@ -210,6 +350,41 @@ public class Pudding {
             actions = new Actions(actionPrefs);
         }
 
+        /**
+         * @param settings       read for all but the actions
+         * @param actionSettings read for the actions
+         */
+        public Settings(SettingsFile settings, SettingsFile actionSettings) {
+            whitelistMode = settings.hasFlag(SettingsFile.FLAG_WHITELIST_MODE);
+            blacklist = ImmutableSet.copyOf(settings.readBlacklist());
+            vibrate = settings.hasFlag(SettingsFile.FLAG_VIBRATE);
+            marginForDrawer = settings.hasFlag(SettingsFile.FLAG_MARGIN_FOR_DRAWER);
+            singleTouch = settings.hasFlag(SettingsFile.FLAG_SINGLE_TOUCH);
+            workaround1 = settings.hasFlag(SettingsFile.FLAG_WORKAROUND1);
+
+            actions = new Actions(actionSettings);
+        }
+
+        int getFlags() {
+            int flags = 0;
+            if (whitelistMode) {
+                flags |= SettingsFile.FLAG_WHITELIST_MODE;
+            }
+            if (vibrate) {
+                flags |= SettingsFile.FLAG_VIBRATE;
+            }
+            if (marginForDrawer) {
+                flags |= SettingsFile.FLAG_MARGIN_FOR_DRAWER;
+            }
+            if (singleTouch) {
+                flags |= SettingsFile.FLAG_SINGLE_TOUCH;
+            }
+            if (workaround1) {
+                flags |= SettingsFile.FLAG_WORKAROUND1;
+            }
+            return flags;
+        }
+
         private String getStringToParse(SharedPreferences prefs, String key, String defValue) {
             String str = prefs.getString(key, defValue);
             if (Strings.isNullOrEmpty(str)) {
@@ -226,6 +401,11 @@ public class Pudding {
             public ActionInfo.Record bottom;
             public ActionInfo.Record right;
 
+            // icons of the records read from the binary settings
+            private transient SettingsFile mIcons;
+            // by SettingsFile.ACTION_XXX
+            private transient ActionInfo[] mLaunchers;
+
             public Actions(SharedPreferences prefs) {
                 top = getActionRecord(prefs, "key_action_top");
                 left = getActionRecord(prefs, "key_action_left");
@@ -233,10 +413,147 @@ public class Pudding {
                 right = getActionRecord(prefs, "key_action_right");
             }
 
+            /**
+             * The records have no iconBase64, the icons are read from the
+             * file when needed.
+             *
+             * @param file
+             */
+            public Actions(SettingsFile file) {
+                top = getActionRecord(file, SettingsFile.ACTION_TOP);
+                left = getActionRecord(file, SettingsFile.ACTION_LEFT);
+                bottom = getActionRecord(file, SettingsFile.ACTION_BOTTOM);
+                right = getActionRecord(file, SettingsFile.ACTION_RIGHT);
+                mIcons = file;
+            }
+
+            /**
+             * @param prefs
+             * @return Whether the actions have been saved in the preferences.
+             */
+            public static boolean isSaved(SharedPreferences prefs) {
+                return prefs.contains("key_action_top");
+            }
+
             private ActionInfo.Record getActionRecord(SharedPreferences prefs, String key) {
                 return ActionInfo.Record.fromPreference(prefs.getString(key, ""));
             }
 
+            private ActionInfo.Record getActionRecord(SettingsFile file, int action) {
+                ActionInfo.Record record = new ActionInfo.Record();
+                record.type = file.getActionType(action);
+                record.intentUri = file.getActionIntentUri(action);
+                record.name = file.getActionName(action);
+                return record;
+            }
+
+            /**
+             * @param action One of SettingsFile.ACTION_XXX.
+             * @return
+             */
+            public ActionInfo.Record get(int action) {
+                switch (action) {
+                    case SettingsFile.ACTION_TOP:
+                        return top;
+                    case SettingsFile.ACTION_LEFT:
+                        return left;
+                    case SettingsFile.ACTION_BOTTOM:
+                        return bottom;
+                    case SettingsFile.ACTION_RIGHT:
+                        return right;
+                }
+                throw new IllegalArgumentException("unknown action: " + action);
+            }
+
+            /**
+             * The bitmap is shared by the process through
+             * {@link ActionIconCache}.
+             *
+             * @param context
+             * @param action  One of SettingsFile.ACTION_XXX.
+             * @return null if the action has no icon.
+             */
+            public Drawable newIconDrawable(Context context, int action) {
+                final Object key;
+                if (mIcons == null) {
+                    final String iconBase64 = get(action).iconBase64;
+                    if (Strings.isNullOrEmpty(iconBase64)) {
+                        return null;
+                    }
+                    key = iconBase64;
+                } else {
+                    if (mIcons.getIconWidth(action) == 0) {
+                        return null;
+                    }
+                    key = mIcons.getIconHash(action);
+                }
+                Bitmap icon = ActionIconCache.get(key);
+                if (icon == null) {
+                    icon = newIcon(action);
+                    if (icon == null) {
+                        return null;
+                    }
+                    ActionIconCache.put(key, icon);
+                }
+                return new BitmapDrawable(context.getResources(), icon);
+            }
+
+            private Bitmap newIcon(int action) {
+                if (mIcons == null) {
+                    return new ActionInfo(get(action)).getIcon();
+                }
+                final int width = mIcons.getIconWidth(action);
+                final int height = mIcons.getIconHeight(action);
+                final int[] pixels = new int[width * height];
+                mIcons.readIconPixels(action, pixels);
+                return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+            }
+
+            /**
+             * for hooks, parses the intents now so that {@link #launch(Context, int)}
+             * only fires them. Call before sharing the actions, and do not
+             * change the records after.
+             */
+            void compileLaunchers() {
+                final ActionInfo[] launchers = new ActionInfo[SettingsFile.ACTION_RIGHT + 1];
+                for (int action = SettingsFile.ACTION_TOP; action <= SettingsFile.ACTION_RIGHT;
+                     ++action) {
+                    launchers[action] = ActionInfo.newLauncher(get(action));
+                }
+                mLaunchers = launchers;
+            }
+
+            /**
+             * @param context
+             * @param action  One of SettingsFile.ACTION_XXX.
+             * @return
+             */
+            public boolean launch(Context context, int action) {
+                if (mLaunchers == null) {
+                    return ActionInfo.newLauncher(get(action)).launch(context);
+                }
+                return mLaunchers[action].launch(context);
+            }
+
+            void writeTo(SettingsFile.Builder builder) {
+                for (int action = SettingsFile.ACTION_TOP; action <= SettingsFile.ACTION_RIGHT;
+                     ++action) {
+                    final ActionInfo.Record record = get(action);
+                    final Bitmap icon = new ActionInfo(record).getIcon();
+                    if (icon == null) {
+                        builder.setAction(action, record.type, record.intentUri, record.name,
+                                null, 0, 0);
+                    } else {
+                        final int width = icon.getWidth();
+                        final int height = icon.getHeight();
+                        final int[] pixels = new int[width * height];
+                        icon.getPixels(pixels, 0, width, 0, 0, width, height);
+                        builder.setAction(action, record.type, record.intentUri, record.name,
+                                pixels, width, height);
+                    }
+                }
+            }
+
             public void save(SharedPreferences prefs) {
                 prefs.edit()
                         .putString("key_action_top", top.toStringForPreference())
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.pudding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Settings in a binary form that the hooked processes read through a
+ * read-only memory mapping, without parsing XML or JSON and without decoding
+ * Base64 or PNG. The settings app writes it next to its preferences.
+ * <p>
+ * All numbers are big-endian ints but the hash. The header has fixed
+ * offsets: the magic "PDST", the version, the flags, the number of
+ * blacklisted packages and the offset of their string offsets, the number of
+ * icons and the offset of the icon table, and then four actions in the order
+ * of ACTION_XXX, each of them the type, the offsets of the intent URI and of
+ * the name, and the index of the icon. A missing string or icon is -1. A
+ * string is its length in bytes and UTF-8 bytes. An icon in the table is its
+ * width, height, the offset of its ARGB pixels and a 64-bit hash of its
+ * content, and actions with the same icon share it.
+ * </p>
+ */
+public final class SettingsFile {
+    private static final int MAGIC = 0x50445354; // "PDST"
+    static final int VERSION = 2;
+
+    public static final int FLAG_WHITELIST_MODE = 1;
+    public static final int FLAG_VIBRATE = 1 << 1;
+    public static final int FLAG_MARGIN_FOR_DRAWER = 1 << 2;
+    public static final int FLAG_SINGLE_TOUCH = 1 << 3;
+    public static final int FLAG_WORKAROUND1 = 1 << 4;
+
+    public static final int ACTION_TOP = 0;
+    public static final int ACTION_LEFT = 1;
+    public static final int ACTION_BOTTOM = 2;
+    public static final int ACTION_RIGHT = 3;
+    private static final int ACTION_COUNT = 4;
+
+    private static final int OFFSET_FLAGS = 8;
+    private static final int OFFSET_BLACKLIST_COUNT = 12;
+    private static final int OFFSET_BLACKLIST = 16;
+    private static final int OFFSET_ICON_COUNT = 20;
+    private static final int OFFSET_ICONS = 24;
+    private static final int OFFSET_ACTIONS = 28;
+    private static final int ACTION_SIZE = 16;
+    private static final int ICON_SIZE = 20;
+    private static final int HEADER_SIZE = OFFSET_ACTIONS + ACTION_SIZE * ACTION_COUNT;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+
+    private SettingsFile(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a settings file");
+        }
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("unsupported settings version: " + version);
+        }
+        final long icons = buffer.getInt(OFFSET_ICONS)
+                + (long) ICON_SIZE * buffer.getInt(OFFSET_ICON_COUNT);
+        if (icons > buffer.capacity()) {
+            throw new IOException("truncated settings file");
+        }
+    }
+
+    /**
+     * Map the file read-only. The mapping stays valid after the file is
+     * replaced, as the writer renames a new file over it.
+     */
+    public static SettingsFile map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    0, raf.length());
+            return new SettingsFile(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static SettingsFile wrap(byte[] bytes) throws IOException {
+        return new SettingsFile(ByteBuffer.wrap(bytes));
+    }
+
+    public int getFlags() {
+        return mBuffer.getInt(OFFSET_FLAGS);
+    }
+
+    public boolean hasFlag(int flag) {
+        return (getFlags() & flag) != 0;
+    }
+
+    public Set<String> readBlacklist() {
+        final int count = mBuffer.getInt(OFFSET_BLACKLIST_COUNT);
+        final int table = mBuffer.getInt(OFFSET_BLACKLIST);
+        final Set<String> blacklist = new HashSet<>(count * 2);
+        for (int i = 0; i < count; ++i) {
+            blacklist.add(readString(mBuffer.getInt(table + i * 4)));
+        }
+        return blacklist;
+    }
+
+    private int action(int action) {
+        return OFFSET_ACTIONS + ACTION_SIZE * action;
+    }
+
+    /**
+     * @param action One of ACTION_XXX.
+     */
+    public int getActionType(int action) {
+        return mBuffer.getInt(action(action));
+    }
+
+    public String getActionIntentUri(int action) {
+        return readString(mBuffer.getInt(action(action) + 4));
+    }
+
+    public String getActionName(int action) {
+        return readString(mBuffer.getInt(action(action) + 8));
+    }
+
+    private int icon(int action) {
+        final int index = mBuffer.getInt(action(action) + 12);
+        return index < 0 ? -1 : mBuffer.getInt(OFFSET_ICONS) + ICON_SIZE * index;
+    }
+
+    /**
+     * @return 0 if the action has no icon.
+     */
+    public int getIconWidth(int action) {
+        final int icon = icon(action);
+        return icon < 0 ? 0 : mBuffer.getInt(icon);
+    }
+
+    public int getIconHeight(int action) {
+        final int icon = icon(action);
+        return icon < 0 ? 0 : mBuffer.getInt(icon + 4);
+    }
+
+    /**
+     * A hash of the size and the pixels of the icon, the same for the same
+     * icon in any file.
+     *
+     * @return 0 if the action has no icon.
+     */
+    public long getIconHash(int action) {
+        final int icon = icon(action);
+        return icon < 0 ? 0 : mBuffer.getLong(icon + 12);
+    }
+
+    /**
+     * @param pixels At least width * height long, receives ARGB pixels.
+     * @return false if the action has no icon.
+     */
+    public boolean readIconPixels(int action, int[] pixels) {
+        final int icon = icon(action);
+        if (icon < 0) {
+            return false;
+        }
+        final int count = mBuffer.getInt(icon) * mBuffer.getInt(icon + 4);
+        final ByteBuffer pixelBuffer = mBuffer.duplicate();
+        pixelBuffer.position(mBuffer.getInt(icon + 8));
+        pixelBuffer.asIntBuffer().get(pixels, 0, count);
+        return true;
+    }
+
+    private String readString(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[mBuffer.getInt(offset)];
+        final ByteBuffer stringBuffer = mBuffer.duplicate();
+        stringBuffer.position(offset + 4);
+        stringBuffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Collects the settings and lays them out in the binary form.
+     */
+    public static final class Builder {
+        private int mFlags;
+        private final ArrayList<String> mBlacklist = new ArrayList<>();
+        private final int[] mTypes = new int[ACTION_COUNT];
+        private final String[] mIntentUris = new String[ACTION_COUNT];
+        private final String[] mNames = new String[ACTION_COUNT];
+        private final int[] mIconIndices = new int[ACTION_COUNT];
+        private final ArrayList<int[]> mIcons = new ArrayList<>();
+        private final ArrayList<int[]> mIconSizes = new ArrayList<>();
+
+        public Builder() {
+            Arrays.fill(mIconIndices, -1);
+        }
+
+        public Builder setFlags(int flags) {
+            mFlags = flags;
+            return this;
+        }
+
+        public Builder setBlacklist(Collection<String> blacklist) {
+            mBlacklist.clear();
+            mBlacklist.addAll(blacklist);
+            return this;
+        }
+
+        /**
+         * @param action One of ACTION_XXX.
+         * @param pixels ARGB pixels of the icon already scaled for display,
+         *               or null.
+         */
+        public Builder setAction(int action, int type, String intentUri, String name,
+                                 int[] pixels, int width, int height) {
+            mTypes[action] = type;
+            mIntentUris[action] = intentUri;
+            mNames[action] = name;
+            mIconIndices[action] = pixels == null ? -1 : addIcon(pixels, width, height);
+            return this;
+        }
+
+        private int addIcon(int[] pixels, int width, int height) {
+            for (int i = 0; i < mIcons.size(); ++i) {
+                final int[] size = mIconSizes.get(i);
+                if (size[0] == width && size[1] == height && Arrays.equals(mIcons.get(i), pixels)) {
+                    return i;
+                }
+            }
+            mIcons.add(pixels);
+            mIconSizes.add(new int[]{width, height});
+            return mIcons.size() - 1;
+        }
+
+        public byte[] build() {
+            final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+            final int stringBase = HEADER_SIZE;
+            try {
+                final DataOutputStream stringData = new DataOutputStream(strings);
+                final int[] blacklistOffsets = new int[mBlacklist.size()];
+                for (int i = 0; i < blacklistOffsets.length; ++i) {
+                    blacklistOffsets[i] = writeString(stringData, stringBase, mBlacklist.get(i));
+                }
+                final int[] intentUriOffsets = new int[ACTION_COUNT];
+                final int[] nameOffsets = new int[ACTION_COUNT];
+                for (int i = 0; i < ACTION_COUNT; ++i) {
+                    intentUriOffsets[i] = writeString(stringData, stringBase, mIntentUris[i]);
+                    nameOffsets[i] = writeString(stringData, stringBase, mNames[i]);
+                }
+                // align the tables that follow the strings
+                while (stringData.size() % 4 != 0) {
+                    stringData.writeByte(0);
+                }
+                final int blacklistTable = stringBase + stringData.size();
+                final int iconTable = blacklistTable + blacklistOffsets.length * 4;
+                int pixelOffset = iconTable + mIcons.size() * ICON_SIZE;
+
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeInt(mFlags);
+                data.writeInt(blacklistOffsets.length);
+                data.writeInt(blacklistTable);
+                data.writeInt(mIcons.size());
+                data.writeInt(iconTable);
+                for (int i = 0; i < ACTION_COUNT; ++i) {
+                    data.writeInt(mTypes[i]);
+                    data.writeInt(intentUriOffsets[i]);
+                    data.writeInt(nameOffsets[i]);
+                    data.writeInt(mIconIndices[i]);
+                }
+                strings.writeTo(data);
+                for (int offset : blacklistOffsets) {
+                    data.writeInt(offset);
+                }
+                for (int i = 0; i < mIcons.size(); ++i) {
+                    final int[] size = mIconSizes.get(i);
+                    data.writeInt(size[0]);
+                    data.writeInt(size[1]);
+                    data.writeInt(pixelOffset);
+                    data.writeLong(hash(size[0], size[1], mIcons.get(i)));
+                    pixelOffset += size[0] * size[1] * 4;
+                }
+                for (int[] pixels : mIcons) {
+                    for (int pixel : pixels) {
+                        data.writeInt(pixel);
+                    }
+                }
+                data.flush();
+                return out.toByteArray();
+            } catch (IOException e) {
+                // never thrown by the in-memory streams
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 64-bit FNV-1a over the size and the pixels.
+         */
+        private static long hash(int width, int height, int[] pixels) {
+            long hash = 0xcbf29ce484222325L;
+            hash = (hash ^ width) * 0x100000001b3L;
+            hash = (hash ^ height) * 0x100000001b3L;
+            for (int pixel : pixels) {
+                hash = (hash ^ pixel) * 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        private static int writeString(DataOutputStream data, int base, String string)
+                throws IOException {
+            if (string == null) {
+                return -1;
+            }
+            final int offset = base + data.size();
+            final byte[] bytes = string.getBytes(UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+            return offset;
+        }
+
+        /**
+         * Write to a temporary file and rename it over the file, so that a
+         * reader maps either the old or the new settings, never a part.
+         */
+        public void writeTo(File file) throws IOException {
+            final File temp = new File(file.getPath() + ".tmp");
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(build());
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            //noinspection ResultOfMethodCallIgnored
+            temp.setReadable(true, false);
+            if (!temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                throw new IOException("cannot replace " + file);
+            }
+        }
+    }
+}
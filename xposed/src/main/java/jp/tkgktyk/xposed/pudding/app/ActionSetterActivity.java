@@ -106,7 +106,9 @@ public class ActionSetterActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
 
-        saveActions();
+        if (saveActions()) {
+            Pudding.exportSettingsAsync(this);
+        }
     }
 
     private boolean saveActions() {
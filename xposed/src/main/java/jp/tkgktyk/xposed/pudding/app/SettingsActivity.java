@@ -124,6 +124,13 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
         setupActionBar();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // the preferences and the action targets may have changed
+        Pudding.exportSettingsAsync(this);
+    }
+
     /**
      * Set up the {@link android.app.ActionBar}, if the API is available.
      */
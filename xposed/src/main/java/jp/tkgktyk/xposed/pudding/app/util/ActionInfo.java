@@ -85,9 +85,25 @@ public class ActionInfo {
             default:
                 setNone();
         }
+        prepareToLaunch();
     }
 
     public ActionInfo(Record record) {
+        this(record, true);
+    }
+
+    /**
+     * Only to launch, without decoding the icon. The intent is ready for
+     * {@link #launch(Context)}.
+     *
+     * @param record
+     * @return
+     */
+    public static ActionInfo newLauncher(Record record) {
+        return new ActionInfo(record, false);
+    }
+
+    private ActionInfo(Record record, boolean withIcon) {
         if (Strings.isNullOrEmpty(record.intentUri)) {
             setNone();
             return;
@@ -95,7 +111,7 @@ public class ActionInfo {
         try {
             mIntent = Intent.parseUri(record.intentUri, 0);
             mType = record.type;
-            if (!Strings.isNullOrEmpty(record.iconBase64)) {
+            if (withIcon && !Strings.isNullOrEmpty(record.iconBase64)) {
                 byte[] iconArray = Base64.decode(record.iconBase64, Base64.DEFAULT);
                 mIcon = BitmapFactory.decodeByteArray(iconArray, 0, iconArray.length);
             }
@@ -104,6 +120,17 @@ public class ActionInfo {
             Log.e(TAG, record.intentUri, e);
             setNone();
         }
+        prepareToLaunch();
+    }
+
+    /**
+     * Activities are started from a context outside of an activity, so that
+     * {@link #launch(Context)} doesn't modify the intent every time.
+     */
+    private void prepareToLaunch() {
+        if (mIntent != null && (mType == TYPE_APP || mType == TYPE_SHORTCUT)) {
+            mIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
     }
 
     public Record toRecord() {
@@ -255,7 +282,6 @@ public class ActionInfo {
             case TYPE_APP:
             case TYPE_SHORTCUT:
                 try {
-                    mIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                     context.startActivity(mIntent);
                 } catch (ActivityNotFoundException e) {
                     Toast.makeText(context, R.string.not_found, Toast.LENGTH_SHORT).show();
@@ -0,0 +1,194 @@
+package jp.tkgktyk.xposed.pudding;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when {@link FileSnapshot} loads again, and compares the cost of the
+ * Activity.onCreate hook reading the preferences every time with the cost of
+ * taking the snapshot.
+ */
+public class FileSnapshotTest {
+    private File mDirectory;
+    private File mPrefs;
+    private File mActions;
+    private int mLoads;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("shared_prefs", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+        mPrefs = new File(mDirectory, "jp.tkgktyk.xposed.pudding_preferences.xml");
+        mActions = new File(mDirectory, "com.example.xml");
+        writePrefs(mPrefs, 20);
+        mLoads = 0;
+    }
+
+    @After
+    public void tearDown() {
+        mPrefs.delete();
+        mActions.delete();
+        mDirectory.delete();
+    }
+
+    /**
+     * A preferences file like the one of the module: a blacklist and four
+     * actions with their icons in base64.
+     */
+    private static void writePrefs(File file, int blacklist) throws IOException {
+        final StringBuilder icon = new StringBuilder();
+        for (int i = 0; i < 4000; ++i) {
+            icon.append((char) ('A' + i % 26));
+        }
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            writer.write("    <boolean name=\"key_whitelist_mode\" value=\"false\" />\n");
+            writer.write("    <boolean name=\"key_vibration\" value=\"true\" />\n");
+            writer.write("    <set name=\"key_blacklist\">\n");
+            for (int i = 0; i < blacklist; ++i) {
+                writer.write("        <string>com.example.app" + i + "</string>\n");
+            }
+            writer.write("    </set>\n");
+            for (String direction : new String[]{"top", "bottom", "left", "right"}) {
+                writer.write("    <string name=\"key_action_" + direction + "\">{\"intent\":\"#Intent;"
+                        + "end\",\"type\":1,\"name\":\"" + direction + "\",\"iconBase64\":\""
+                        + icon + "\"}</string>\n");
+            }
+            writer.write("</map>\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads the whole file and all of its entries as XSharedPreferences.reload
+     * does, with a scan of the lines written by {@link #writePrefs} instead of
+     * an XML parser, which is not available to local unit tests.
+     */
+    private static Map<String, Object> readPrefs(File file) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        final Map<String, Object> map = new HashMap<>();
+        for (String line : bytes.toString("UTF-8").split("\n")) {
+            final int name = line.indexOf(" name=\"");
+            if (name == -1) {
+                continue;
+            }
+            final int nameEnd = line.indexOf('"', name + 7);
+            final int value = line.indexOf(" value=\"", nameEnd);
+            if (value != -1) {
+                map.put(line.substring(name + 7, nameEnd),
+                        line.substring(value + 8, line.indexOf('"', value + 8)));
+            } else {
+                final int text = line.indexOf('>', nameEnd) + 1;
+                final int textEnd = line.indexOf('<', text);
+                map.put(line.substring(name + 7, nameEnd),
+                        textEnd == -1 ? "" : line.substring(text, textEnd));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * What the hook did before on every onCreate.
+     */
+    private Map<String, Object> load() throws Exception {
+        ++mLoads;
+        final Map<String, Object> map = readPrefs(mPrefs);
+        if (mActions.exists()) {
+            map.putAll(readPrefs(mActions));
+        }
+        return map;
+    }
+
+    private FileSnapshot<Map<String, Object>> newSnapshot() {
+        return new FileSnapshot<>(new FileSnapshot.Loader<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> load() throws Exception {
+                return FileSnapshotTest.this.load();
+            }
+        }, mPrefs, mActions);
+    }
+
+    @Test
+    public void loadsOnlyOnChange() throws Exception {
+        final FileSnapshot<Map<String, Object>> snapshot = newSnapshot();
+        final Map<String, Object> first = snapshot.get();
+        assertSame(first, snapshot.get());
+        assertEquals(1, mLoads);
+
+        writePrefs(mPrefs, 21);
+        final Map<String, Object> second = snapshot.get();
+        assertNotSame(first, second);
+        assertSame(second, snapshot.get());
+        assertEquals(2, mLoads);
+
+        // the actions of the package are created
+        writePrefs(mActions, 0);
+        snapshot.get();
+        assertEquals(3, mLoads);
+
+        assertTrue(mActions.delete());
+        snapshot.get();
+        snapshot.get();
+        assertEquals(4, mLoads);
+    }
+
+    @Test
+    public void detectsTouch() throws Exception {
+        final FileSnapshot<Map<String, Object>> snapshot = newSnapshot();
+        snapshot.get();
+        // same size, later time
+        assertTrue(mPrefs.setLastModified(mPrefs.lastModified() + 2000));
+        snapshot.get();
+        assertEquals(2, mLoads);
+    }
+
+    @Test
+    public void snapshotIsCheaperThanReload() throws Exception {
+        final FileSnapshot<Map<String, Object>> snapshot = newSnapshot();
+        final int iterations = 2000;
+        // warm up both
+        for (int i = 0; i < iterations; ++i) {
+            load();
+            snapshot.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            load();
+        }
+        final long reloadNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            snapshot.get();
+        }
+        final long snapshotNanos = System.nanoTime() - start;
+        assertTrue("reload " + reloadNanos / iterations / 1000 + "us, snapshot "
+                + snapshotNanos / iterations / 1000f + "us", snapshotNanos < reloadNanos);
+    }
+}
@@ -0,0 +1,142 @@
+package jp.tkgktyk.xposed.pudding;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link SettingsFile} reads back what it wrote. The cost of
+ * reading an icon is measured on a device by SettingsFileBenchmark.
+ */
+public class SettingsFileTest {
+    private static final int ICON_SIZE = 144;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("settings", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static int[] newIcon(int seed) {
+        final int[] pixels = new int[ICON_SIZE * ICON_SIZE];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = 0xff000000 | (i * seed);
+        }
+        return pixels;
+    }
+
+    private static SettingsFile.Builder newBuilder(int[] icon, int[] sharedIcon) {
+        final Set<String> blacklist = new HashSet<>();
+        blacklist.add("com.example.app");
+        blacklist.add("jp.example.\u30a2\u30d7\u30ea");
+        return new SettingsFile.Builder()
+                .setFlags(SettingsFile.FLAG_VIBRATE | SettingsFile.FLAG_SINGLE_TOUCH)
+                .setBlacklist(blacklist)
+                .setAction(SettingsFile.ACTION_TOP, 1, "#Intent;action=BACK;end", "Back",
+                        icon, ICON_SIZE, ICON_SIZE)
+                .setAction(SettingsFile.ACTION_LEFT, 2, "#Intent;component=a/.B;end", "App",
+                        sharedIcon, ICON_SIZE, ICON_SIZE)
+                .setAction(SettingsFile.ACTION_RIGHT, 2, "#Intent;component=a/.B;end", "App",
+                        sharedIcon.clone(), ICON_SIZE, ICON_SIZE);
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        final int[] icon = newIcon(3);
+        final int[] sharedIcon = newIcon(7);
+        newBuilder(icon, sharedIcon).writeTo(mFile);
+        final SettingsFile file = SettingsFile.map(mFile);
+
+        assertTrue(file.hasFlag(SettingsFile.FLAG_VIBRATE));
+        assertTrue(file.hasFlag(SettingsFile.FLAG_SINGLE_TOUCH));
+        assertFalse(file.hasFlag(SettingsFile.FLAG_WHITELIST_MODE));
+        final Set<String> blacklist = file.readBlacklist();
+        assertEquals(2, blacklist.size());
+        assertTrue(blacklist.contains("jp.example.\u30a2\u30d7\u30ea"));
+
+        assertEquals(1, file.getActionType(SettingsFile.ACTION_TOP));
+        assertEquals("#Intent;action=BACK;end", file.getActionIntentUri(SettingsFile.ACTION_TOP));
+        assertEquals("Back", file.getActionName(SettingsFile.ACTION_TOP));
+        final int[] pixels = new int[ICON_SIZE * ICON_SIZE];
+        assertTrue(file.readIconPixels(SettingsFile.ACTION_TOP, pixels));
+        assertTrue(Arrays.equals(icon, pixels));
+        assertTrue(file.readIconPixels(SettingsFile.ACTION_RIGHT, pixels));
+        assertTrue(Arrays.equals(sharedIcon, pixels));
+        assertEquals(ICON_SIZE, file.getIconWidth(SettingsFile.ACTION_LEFT));
+
+        // an action never set
+        assertEquals(0, file.getActionType(SettingsFile.ACTION_BOTTOM));
+        assertNull(file.getActionIntentUri(SettingsFile.ACTION_BOTTOM));
+        assertNull(file.getActionName(SettingsFile.ACTION_BOTTOM));
+        assertEquals(0, file.getIconWidth(SettingsFile.ACTION_BOTTOM));
+        assertFalse(file.readIconPixels(SettingsFile.ACTION_BOTTOM, pixels));
+    }
+
+    @Test
+    public void sharesSameIcons() {
+        final int[] icon = newIcon(3);
+        final int[] sharedIcon = newIcon(7);
+        final int shared = newBuilder(icon, sharedIcon).build().length;
+        final int separate = newBuilder(icon, sharedIcon)
+                .setAction(SettingsFile.ACTION_RIGHT, 2, "#Intent;component=a/.B;end", "App",
+                        newIcon(11), ICON_SIZE, ICON_SIZE)
+                .build().length;
+        assertEquals(ICON_SIZE * ICON_SIZE * 4 + 20, separate - shared);
+    }
+
+    @Test
+    public void hashesIconContent() throws IOException {
+        final SettingsFile file = SettingsFile.wrap(newBuilder(newIcon(3), newIcon(7)).build());
+        final SettingsFile other = SettingsFile.wrap(new SettingsFile.Builder()
+                .setAction(SettingsFile.ACTION_BOTTOM, 2, "#Intent;end", "App",
+                        newIcon(7), ICON_SIZE, ICON_SIZE)
+                .build());
+        assertEquals(file.getIconHash(SettingsFile.ACTION_LEFT),
+                other.getIconHash(SettingsFile.ACTION_BOTTOM));
+        assertNotEquals(file.getIconHash(SettingsFile.ACTION_TOP),
+                file.getIconHash(SettingsFile.ACTION_LEFT));
+        assertEquals(0, file.getIconHash(SettingsFile.ACTION_BOTTOM));
+    }
+
+    @Test
+    public void keepsMappingOverReplacement() throws IOException {
+        newBuilder(newIcon(3), newIcon(7)).writeTo(mFile);
+        final SettingsFile old = SettingsFile.map(mFile);
+        new SettingsFile.Builder().setFlags(SettingsFile.FLAG_WHITELIST_MODE).writeTo(mFile);
+        assertEquals("Back", old.getActionName(SettingsFile.ACTION_TOP));
+        assertTrue(SettingsFile.map(mFile).hasFlag(SettingsFile.FLAG_WHITELIST_MODE));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        SettingsFile.wrap("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n"
+                .getBytes("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        final byte[] bytes = new SettingsFile.Builder().build();
+        ++bytes[7];
+        SettingsFile.wrap(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        final byte[] bytes = newBuilder(newIcon(3), newIcon(7)).build();
+        SettingsFile.wrap(Arrays.copyOf(bytes, 200));
+    }
+}